@@ -0,0 +1,59 @@
+package patternbuilder.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import patternbuilder.io.InMemoryCommunication;
+import patternbuilder.io.NetworkCommunication;
+import patternbuilder.io.TextBasedCommunication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of constructing communications through their builders. Network builders include opening and closing
+ * the channel, which dominates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BuilderBenchmark {
+
+    @Benchmark
+    public InMemoryCommunication inMemory() {
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.memoryBufferSize(1024)
+                .consumer(bytes -> {
+                })
+                .name("benchmark");
+        return builder.build();
+    }
+
+    @Benchmark
+    public void network() throws Exception {
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.host(LoopbackPeer.HOST)
+                .port(0)
+                .name("benchmark");
+        builder.build().close();
+    }
+
+    @Benchmark
+    public void textBased() throws Exception {
+        TextBasedCommunication.Builder builder = new TextBasedCommunication.Builder();
+        builder.charset(StandardCharsets.UTF_8)
+                .host(LoopbackPeer.HOST)
+                .port(0)
+                .name("benchmark");
+        builder.build().close();
+    }
+}
@@ -0,0 +1,91 @@
+package patternbuilder.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import patternbuilder.core.Communication;
+import patternbuilder.io.InMemoryCommunication;
+import patternbuilder.io.NetworkCommunication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-way latency from {@code send} until the message is seen by the other side: the consumer thread for the
+ * asynchronous in-memory transport, a loopback socket for the network one. Sample mode reports percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyBenchmark {
+    @Param({"16", "1024"})
+    private int size;
+
+    @Param({"IN_MEMORY_ASYNC", "NETWORK"})
+    private Transport transport;
+
+    private Communication communication;
+    private LoopbackPeer peer;
+    private byte[] message;
+    private volatile long delivered;
+    private long sent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        message = new byte[size];
+        switch (transport) {
+            case IN_MEMORY_ASYNC:
+                InMemoryCommunication.Builder inMemory = new InMemoryCommunication.Builder();
+                inMemory.asynchronous(true)
+                        .memoryBufferSize(size)
+                        .consumer(this::consume)
+                        .name("benchmark");
+                communication = inMemory.build();
+                break;
+            case NETWORK:
+                peer = new LoopbackPeer();
+                communication = peer.connect(new NetworkCommunication.Builder());
+                break;
+            default:
+                throw new IllegalStateException("Unsupported transport " + transport);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        communication.close();
+        if (peer != null) {
+            peer.close();
+        }
+    }
+
+    @Benchmark
+    public long sendAndReceive() throws Exception {
+        communication.send(message);
+        if (peer != null) {
+            return peer.readFrame();
+        }
+        sent++;
+        while (delivered < sent) {
+            Thread.yield();
+        }
+        return sent;
+    }
+
+    @SuppressWarnings("NonAtomicOperationOnVolatileField") // written by the single consumer thread only
+    private void consume(byte[] bytes) {
+        delivered++;
+    }
+}
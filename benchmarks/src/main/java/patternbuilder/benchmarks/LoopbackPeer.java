@@ -0,0 +1,96 @@
+package patternbuilder.benchmarks;
+
+import patternbuilder.io.NetworkCommunication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Other end of a loopback TCP connection used by the network benchmarks.
+ */
+final class LoopbackPeer implements AutoCloseable {
+    static final String HOST = "127.0.0.1";
+
+    private final ServerSocketChannel server;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(256 * 1024);
+    private SocketChannel channel;
+    private Thread drainer;
+
+    LoopbackPeer() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(HOST, 0));
+    }
+
+    /**
+     * Builds the communication connected to this peer and accepts the connection.
+     */
+    <T extends NetworkCommunication> T connect(NetworkCommunication.Builder builder) throws IOException {
+        builder.remoteHost(HOST)
+                .remotePort(server.socket().getLocalPort())
+                .host(HOST)
+                .port(0);
+        @SuppressWarnings("unchecked")
+        T communication = (T) builder.build();
+        if (communication == null) {
+            throw new IOException("Failed to connect to " + HOST);
+        }
+        channel = server.accept();
+        channel.socket().setTcpNoDelay(true);
+        return communication;
+    }
+
+    /**
+     * Discards everything received on a background thread, for throughput benchmarks.
+     */
+    void startDraining() {
+        drainer = new Thread(() -> {
+            ByteBuffer sink = ByteBuffer.allocateDirect(256 * 1024);
+            try {
+                while (channel.read(sink) >= 0) {
+                    sink.clear();
+                }
+            } catch (IOException ignored) {
+                // closed by the benchmark
+            }
+        }, "loopback-peer-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Blocks until one whole frame has been received.
+     *
+     * @return payload length
+     */
+    int readFrame() throws IOException {
+        readFully(4);
+        int length = readBuffer.getInt(0);
+        readFully(length);
+        return length;
+    }
+
+    private void readFully(int length) throws IOException {
+        readBuffer.clear();
+        readBuffer.limit(length);
+        while (readBuffer.hasRemaining()) {
+            if (channel.read(readBuffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (channel != null) {
+            channel.close();
+        }
+        server.close();
+        if (drainer != null) {
+            drainer.join();
+        }
+    }
+}
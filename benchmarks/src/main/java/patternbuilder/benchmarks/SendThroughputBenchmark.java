@@ -0,0 +1,105 @@
+package patternbuilder.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import patternbuilder.core.Communication;
+import patternbuilder.io.InMemoryCommunication;
+import patternbuilder.io.NetworkCommunication;
+import patternbuilder.io.TextBasedCommunication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second accepted by {@code send} for every transport and message size.
+ * <p>
+ * Run with {@code -prof gc} to see the allocation rate per message ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendThroughputBenchmark {
+    @Param({"16", "256", "4096", "65536"})
+    private int size;
+
+    @Param({"IN_MEMORY", "IN_MEMORY_ASYNC", "NETWORK", "TEXT"})
+    private Transport transport;
+
+    private Communication communication;
+    private TextBasedCommunication textCommunication;
+    private LoopbackPeer peer;
+    private byte[] message;
+    private String text;
+    private Blackhole blackhole;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        message = new byte[size];
+        Arrays.fill(message, (byte) 'x');
+        text = new String(message, StandardCharsets.US_ASCII);
+        switch (transport) {
+            case IN_MEMORY:
+            case IN_MEMORY_ASYNC:
+                InMemoryCommunication.Builder inMemory = new InMemoryCommunication.Builder();
+                inMemory.asynchronous(transport == Transport.IN_MEMORY_ASYNC)
+                        .memoryBufferSize(size)
+                        .consumer(this::consume)
+                        .name("benchmark");
+                communication = inMemory.build();
+                break;
+            case NETWORK:
+                peer = new LoopbackPeer();
+                communication = peer.connect(new NetworkCommunication.Builder());
+                peer.startDraining();
+                break;
+            case TEXT:
+                peer = new LoopbackPeer();
+                TextBasedCommunication.Builder textBased = new TextBasedCommunication.Builder();
+                textBased.charset(StandardCharsets.UTF_8);
+                textCommunication = peer.connect(textBased);
+                communication = textCommunication;
+                peer.startDraining();
+                break;
+            default:
+                throw new IllegalStateException("Unknown transport " + transport);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        communication.close();
+        if (peer != null) {
+            peer.close();
+        }
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        if (textCommunication != null) {
+            textCommunication.send(text);
+        } else {
+            communication.send(message);
+        }
+    }
+
+    private void consume(byte[] bytes) {
+        blackhole.consume(bytes);
+    }
+}
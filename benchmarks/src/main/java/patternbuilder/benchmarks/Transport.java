@@ -0,0 +1,11 @@
+package patternbuilder.benchmarks;
+
+/**
+ * Communication flavours covered by the benchmarks.
+ */
+public enum Transport {
+    IN_MEMORY,
+    IN_MEMORY_ASYNC,
+    NETWORK,
+    TEXT
+}
@@ -1,5 +1,9 @@
 package patternbuilder.core;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Roman Katerinenko
  */
@@ -11,10 +15,104 @@ public interface Communication {
 
     void send(byte[] bytes) throws Exception;
 
+    /**
+     * Sends {@code length} bytes of {@code bytes} starting at {@code offset}. The array may be reused as soon as
+     * the method returns. The default implementation copies the slice.
+     */
+    default void send(byte[] bytes, int offset, int length) throws Exception {
+        send(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    /**
+     * Sends the remaining bytes of {@code buffer} and advances its position to the limit. The default
+     * implementation copies unless the buffer is backed by an array.
+     */
+    default void send(ByteBuffer buffer) throws Exception {
+        int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            send(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.limit());
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            send(bytes);
+        }
+    }
+
+    /**
+     * Sends all {@code messages} in order, letting the implementation combine them into as few writes as it can.
+     * The default implementation sends them one by one.
+     */
+    default void sendBatch(byte[]... messages) throws Exception {
+        for (byte[] message : messages) {
+            send(message);
+        }
+    }
+
+    /**
+     * Sends the remaining bytes of every buffer in order, see {@link #sendBatch(byte[]...)}.
+     */
+    default void sendBatch(ByteBuffer... messages) throws Exception {
+        for (ByteBuffer message : messages) {
+            send(message);
+        }
+    }
+
+    /**
+     * Sends {@code bytes} without waiting for the transport. The future completes once the message has been handed
+     * over: written to the socket for network communications, delivered to the consumer for in-memory ones.
+     * The array must not be modified until then. The default implementation sends synchronously.
+     */
+    default CompletableFuture<Void> sendAsync(byte[] bytes) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            send(bytes);
+            result.complete(null);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return counters of this communication, {@code null} unless it has been built with metrics enabled
+     */
+    default Metrics metrics() {
+        return null;
+    }
+
     void close() throws Exception;
 
     interface Consumer {
         void handleDelivery(byte[] bytes);
+
+        /**
+         * Receives a message occupying {@code length} bytes of {@code bytes} starting at {@code offset}. The array
+         * belongs to the communication and must not be used after the method returns. The default implementation
+         * copies the slice unless it spans the whole array.
+         */
+        default void handleDelivery(byte[] bytes, int offset, int length) {
+            if (offset == 0 && length == bytes.length) {
+                handleDelivery(bytes);
+            } else {
+                handleDelivery(Arrays.copyOfRange(bytes, offset, offset + length));
+            }
+        }
+
+        /**
+         * Receives a message as the remaining bytes of {@code buffer}. The buffer belongs to the communication and
+         * must not be used after the method returns. The default implementation copies unless the buffer is backed
+         * by an array.
+         */
+        default void handleDelivery(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                handleDelivery(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.duplicate().get(bytes);
+                handleDelivery(bytes);
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package patternbuilder.core;
+
+/**
+ * Live counters of a {@link Communication}. Values are read without stopping writers, so a snapshot of several
+ * of them is not atomic. Durations are in nanoseconds.
+ */
+public interface Metrics {
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    long getMessagesDelivered();
+
+    long getBytesDelivered();
+
+    /**
+     * @return messages or bytes accepted by {@code send} but not handed over yet; the unit depends on the
+     * communication
+     */
+    long getQueueDepth();
+
+    /**
+     * @return time spent in {@code send} calls
+     */
+    Histogram getSendLatency();
+
+    /**
+     * @return time spent in {@link Communication.Consumer#handleDelivery(byte[])} and its variants
+     */
+    Histogram getDispatchTime();
+
+    interface Histogram {
+        long getCount();
+
+        long getMax();
+
+        double getMean();
+
+        /**
+         * @param percentile between {@code 0} and {@code 100}
+         * @return value at or below which {@code percentile} percent of the recorded values fall, within 12.5%
+         */
+        long getValueAtPercentile(double percentile);
+    }
+}
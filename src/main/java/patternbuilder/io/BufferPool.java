@@ -0,0 +1,149 @@
+package patternbuilder.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of heap or direct {@link PooledBuffer}s in power-of-two size classes.
+ * <p>
+ * Released buffers are kept in a small cache of the releasing thread first, so a thread leasing and releasing
+ * buffers in a loop touches no shared state. When that cache is full (or empty on lease) the pool falls back to
+ * a bounded queue per size class shared by all threads. Requests above {@code maxBufferSize} are served with
+ * plain unpooled buffers.
+ */
+public class BufferPool {
+    public static final int DEFAULT_MIN_BUFFER_SIZE = 64; // bytes
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024; // bytes
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 16; // buffers per size class
+    public static final int DEFAULT_SHARED_CAPACITY = 256; // buffers per size class
+
+    private final boolean direct;
+    private final int minBufferSize;
+    private final int maxBufferSize;
+    private final int minShift;
+    private final int threadCacheSize;
+    private final ArrayBlockingQueue<PooledBuffer>[] shared;
+    private final ThreadLocal<ArrayDeque<PooledBuffer>[]> threadCaches;
+    private final LongAdder allocations = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private BufferPool(Builder builder) {
+        direct = builder.direct;
+        minBufferSize = RingBuffer.ceilingPowerOfTwo(builder.minBufferSize);
+        maxBufferSize = RingBuffer.ceilingPowerOfTwo(builder.maxBufferSize);
+        minShift = Integer.numberOfTrailingZeros(minBufferSize);
+        threadCacheSize = builder.threadCacheSize;
+        int sizeClasses = Integer.numberOfTrailingZeros(maxBufferSize) - minShift + 1;
+        shared = (ArrayBlockingQueue<PooledBuffer>[]) new ArrayBlockingQueue<?>[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            shared[i] = new ArrayBlockingQueue<>(builder.sharedCapacity);
+        }
+        threadCaches = ThreadLocal.withInitial(() -> {
+            ArrayDeque<PooledBuffer>[] caches = (ArrayDeque<PooledBuffer>[]) new ArrayDeque<?>[sizeClasses];
+            for (int i = 0; i < sizeClasses; i++) {
+                caches[i] = new ArrayDeque<>(threadCacheSize);
+            }
+            return caches;
+        });
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * @return number of buffers allocated so far, which stops growing once the pool is warm
+     */
+    public long getAllocationCount() {
+        return allocations.sum();
+    }
+
+    /**
+     * Leases a buffer with position {@code 0} and limit {@code size}. Its capacity may be larger.
+     */
+    public PooledBuffer lease(int size) {
+        if (size > maxBufferSize) {
+            return new PooledBuffer(this, -1, allocate(size)).reset(size);
+        }
+        int sizeClass = sizeClass(size);
+        PooledBuffer buffer = threadCaches.get()[sizeClass].pollLast();
+        if (buffer == null) {
+            buffer = shared[sizeClass].poll();
+        }
+        if (buffer == null) {
+            buffer = new PooledBuffer(this, sizeClass, allocate(minBufferSize << sizeClass));
+        }
+        return buffer.reset(size);
+    }
+
+    void recycle(PooledBuffer buffer) {
+        int sizeClass = buffer.sizeClass();
+        if (sizeClass < 0) {
+            return; // unpooled
+        }
+        ArrayDeque<PooledBuffer> cache = threadCaches.get()[sizeClass];
+        if (cache.size() < threadCacheSize) {
+            cache.addLast(buffer);
+        } else {
+            shared[sizeClass].offer(buffer); // dropped if the shared queue is full too
+        }
+    }
+
+    private int sizeClass(int size) {
+        if (size <= minBufferSize) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocations.increment();
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public static class Builder {
+        private boolean direct;
+        private int minBufferSize = DEFAULT_MIN_BUFFER_SIZE;
+        private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+        private int threadCacheSize = DEFAULT_THREAD_CACHE_SIZE;
+        private int sharedCapacity = DEFAULT_SHARED_CAPACITY;
+
+        public Builder direct(boolean direct) {
+            this.direct = direct;
+            return this;
+        }
+
+        public Builder minBufferSize(int minBufferSize) {
+            this.minBufferSize = minBufferSize;
+            return this;
+        }
+
+        public Builder maxBufferSize(int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize;
+            return this;
+        }
+
+        public Builder threadCacheSize(int threadCacheSize) {
+            this.threadCacheSize = threadCacheSize;
+            return this;
+        }
+
+        public Builder sharedCapacity(int sharedCapacity) {
+            this.sharedCapacity = sharedCapacity;
+            return this;
+        }
+
+        public BufferPool build() {
+            if (minBufferSize < 1 || maxBufferSize < minBufferSize || threadCacheSize < 0 || sharedCapacity < 1) {
+                return null;
+            }
+            return new BufferPool(this);
+        }
+    }
+}
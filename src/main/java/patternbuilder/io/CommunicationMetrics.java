@@ -0,0 +1,71 @@
+package patternbuilder.io;
+
+import patternbuilder.core.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link Metrics} recorded with striped counters, so that many sending and delivering threads do not contend
+ * on a single cache line.
+ */
+final class CommunicationMetrics implements Metrics {
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder messagesDelivered = new LongAdder();
+    private final LongAdder bytesDelivered = new LongAdder();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchTime = new LatencyHistogram();
+    private final LongSupplier queueDepth;
+
+    CommunicationMetrics(LongSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    void recordSend(int messages, long bytes, long nanos) {
+        messagesSent.add(messages);
+        bytesSent.add(bytes);
+        sendLatency.record(nanos);
+    }
+
+    void recordDelivery(int bytes, long nanos) {
+        messagesDelivered.increment();
+        bytesDelivered.add(bytes);
+        dispatchTime.record(nanos);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getMessagesDelivered() {
+        return messagesDelivered.sum();
+    }
+
+    @Override
+    public long getBytesDelivered() {
+        return bytesDelivered.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.getAsLong();
+    }
+
+    @Override
+    public Histogram getSendLatency() {
+        return sendLatency;
+    }
+
+    @Override
+    public Histogram getDispatchTime() {
+        return dispatchTime;
+    }
+}
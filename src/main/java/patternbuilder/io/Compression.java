@@ -0,0 +1,274 @@
+package patternbuilder.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-message compression with {@link Deflater}, applied by {@link NetworkCommunication} and its subclasses.
+ * <p>
+ * Every message starts with a flag byte. Messages shorter than {@code threshold}, or which deflate does not make
+ * any smaller, follow as they are; others follow as their original length and the raw deflate stream. A preset
+ * {@code dictionary} of content typical for the messages lets even small ones compress well. Both peers must use
+ * the same settings.
+ * <p>
+ * Messages are compressed and restored by a {@link Codec} borrowed for the operation. Idle codecs are pooled with
+ * their deflater, inflater and buffers, nothing is allocated per message once they have grown to the largest message;
+ * codecs beyond the pool's capacity release their native memory when returned. A deflated message claiming to be
+ * longer than {@code maxDecompressedSize} is rejected before anything is allocated for it. Thread-safe.
+ */
+public final class Compression {
+    public static final int DEFAULT_THRESHOLD = 256; // bytes
+    static final byte RAW = 0;
+    static final byte DEFLATED = 1;
+    static final int RAW_HEADER_SIZE = 1;
+    static final int DEFLATED_HEADER_SIZE = 5; // flag and original length
+
+    private final int level;
+    private final int threshold;
+    private final int maxDecompressedSize;
+    private final byte[] dictionary;
+    private final ArrayBlockingQueue<Codec> idleCodecs =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    private Compression(Builder builder) {
+        level = builder.level;
+        threshold = builder.threshold;
+        maxDecompressedSize = builder.maxDecompressedSize;
+        dictionary = builder.dictionary == null ? null : builder.dictionary.clone();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public boolean hasDictionary() {
+        return dictionary != null;
+    }
+
+    public int getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+    /**
+     * @return an idle codec or a new one, to be closed by the caller when done with it and what it returned
+     */
+    Codec codec() {
+        Codec codec = idleCodecs.poll();
+        return codec == null ? new Codec() : codec;
+    }
+
+    /**
+     * Compresses and restores messages for one caller at a time, returning to the pool when closed.
+     */
+    final class Codec implements AutoCloseable {
+        private final Deflater deflater = new Deflater(level, true);
+        private final Inflater inflater = new Inflater(true);
+        private byte[] input = new byte[threshold + 64];
+        private byte[] output = new byte[threshold + 64];
+        private ByteBuffer outputView = ByteBuffer.wrap(output);
+        private byte[] inflated = new byte[threshold + 64]; // apart from output, which may be the input
+        private ByteBuffer inflatedView = ByteBuffer.wrap(inflated);
+
+        private Codec() {
+        }
+
+        /**
+         * Compresses the remaining bytes of {@code payload} and advances its position to the limit.
+         *
+         * @return the message to send, valid until the next call on this codec
+         */
+        ByteBuffer compress(ByteBuffer payload) {
+            int length = payload.remaining();
+            ByteBuffer message;
+            if (payload.hasArray()) {
+                message = compress(payload.array(), payload.arrayOffset() + payload.position(), length);
+            } else {
+                input = ensureCapacity(input, length);
+                payload.duplicate().get(input, 0, length);
+                message = compress(input, 0, length);
+            }
+            payload.position(payload.limit());
+            return message;
+        }
+
+        /**
+         * Compresses {@code length} bytes of {@code source} starting at {@code offset}.
+         *
+         * @return the message to send, valid until the next call on this codec
+         */
+        ByteBuffer compress(byte[] source, int offset, int length) {
+            if (length >= threshold) {
+                int compressed = deflate(source, offset, length);
+                if (compressed < length) {
+                    ByteBuffer message = output(DEFLATED_HEADER_SIZE + compressed);
+                    message.put(0, DEFLATED).putInt(1, length);
+                    return message;
+                }
+            }
+            output = ensureCapacity(output, RAW_HEADER_SIZE + length);
+            output[0] = RAW;
+            System.arraycopy(source, offset, output, RAW_HEADER_SIZE, length);
+            return output(RAW_HEADER_SIZE + length);
+        }
+
+        /**
+         * @return compressed size, at least {@code length} if compression does not pay off
+         */
+        private int deflate(byte[] source, int offset, int length) {
+            output = ensureCapacity(output, DEFLATED_HEADER_SIZE + length);
+            deflater.reset();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(source, offset, length);
+            deflater.finish();
+            int limit = DEFLATED_HEADER_SIZE + length; // no point in going beyond the original size
+            int written = DEFLATED_HEADER_SIZE;
+            while (!deflater.finished() && written < limit) {
+                written += deflater.deflate(output, written, limit - written);
+            }
+            return deflater.finished() ? written - DEFLATED_HEADER_SIZE : length;
+        }
+
+        /**
+         * Restores a message produced by {@link #compress(ByteBuffer)} from the remaining bytes of {@code message}.
+         *
+         * @return the original payload, valid until the next call on this codec: {@code message} itself positioned
+         * past the header if it was sent as it is
+         */
+        ByteBuffer decompress(ByteBuffer message) throws DataFormatException {
+            int position = message.position();
+            if (message.remaining() < RAW_HEADER_SIZE) {
+                throw new DataFormatException("Empty message");
+            }
+            byte flag = message.get(position);
+            if (flag == RAW) {
+                message.position(position + RAW_HEADER_SIZE);
+                return message;
+            }
+            if (flag != DEFLATED || message.remaining() < DEFLATED_HEADER_SIZE) {
+                throw new DataFormatException("Unknown message format " + flag);
+            }
+            int length = message.getInt(position + 1);
+            if (length < 0 || length > maxDecompressedSize) {
+                throw new DataFormatException("Invalid length " + length + ", maxDecompressedSize is "
+                        + maxDecompressedSize);
+            }
+            int compressed = message.remaining() - DEFLATED_HEADER_SIZE;
+            byte[] source;
+            int offset;
+            if (message.hasArray()) {
+                source = message.array();
+                offset = message.arrayOffset() + position + DEFLATED_HEADER_SIZE;
+            } else {
+                input = ensureCapacity(input, compressed);
+                ByteBuffer view = message.duplicate();
+                view.position(position + DEFLATED_HEADER_SIZE);
+                view.get(input, 0, compressed);
+                source = input;
+                offset = 0;
+            }
+            if (inflated.length < length) {
+                inflated = ensureCapacity(inflated, length);
+                inflatedView = ByteBuffer.wrap(inflated);
+            }
+            inflater.reset();
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary); // raw streams take the dictionary up front
+            }
+            inflater.setInput(source, offset, compressed);
+            int total = 0;
+            while (total < length && !inflater.finished()) {
+                int count = inflater.inflate(inflated, total, length - total);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                total += count;
+            }
+            if (total != length) {
+                throw new DataFormatException("Expected " + length + " bytes, inflated " + total);
+            }
+            inflatedView.clear();
+            inflatedView.limit(length);
+            return inflatedView;
+        }
+
+        /**
+         * Returns this codec to the pool, or frees its native memory if the pool is full.
+         */
+        @Override
+        public void close() {
+            if (!idleCodecs.offer(this)) {
+                deflater.end();
+                inflater.end();
+            }
+        }
+
+        private ByteBuffer output(int length) {
+            if (outputView.array() != output) {
+                outputView = ByteBuffer.wrap(output);
+            }
+            outputView.clear();
+            outputView.limit(length);
+            return outputView;
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int required) {
+        return array.length >= required ? array : new byte[Math.max(required, 2 * array.length)];
+    }
+
+    public static class Builder {
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private int threshold = DEFAULT_THRESHOLD;
+        private int maxDecompressedSize = NetworkCommunication.DEFAULT_MAX_FRAME_SIZE;
+        private byte[] dictionary;
+
+        /**
+         * Deflate level from {@code 1} (fastest) to {@code 9} (smallest), the default is {@code 6}.
+         */
+        public Builder level(int level) {
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Messages shorter than {@code threshold} bytes are sent as they are.
+         */
+        public Builder threshold(int threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * Longest message accepted from a peer once restored, a longer one is rejected as corrupt.
+         */
+        public Builder maxDecompressedSize(int maxDecompressedSize) {
+            this.maxDecompressedSize = maxDecompressedSize;
+            return this;
+        }
+
+        /**
+         * Bytes likely to occur in the messages, such as a sample message or its common keys. Most valuable
+         * content goes last.
+         */
+        public Builder dictionary(byte[] dictionary) {
+            this.dictionary = dictionary;
+            return this;
+        }
+
+        public Compression build() {
+            if (threshold < 0 || maxDecompressedSize < 0 || level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+                return null;
+            }
+            return new Compression(this);
+        }
+    }
+}
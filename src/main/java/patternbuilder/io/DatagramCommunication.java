@@ -0,0 +1,408 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends messages as UDP datagrams, to a single peer or to a multicast group.
+ * <p>
+ * A datagram starts with the 8-byte sequence number of its first message, a 2-byte message count and the 4-byte
+ * session of the sender, followed by the messages, each prefixed with its 2-byte length. Messages are numbered consecutively, so a receiver
+ * detects lost messages from the gaps between sequence numbers. With {@code autoFlush} disabled messages are
+ * packed into the current datagram until the next one would exceed {@code maxDatagramSize} or {@link #flush()}
+ * is called, so many small messages share a single system call and a single packet.
+ * <p>
+ * With a {@code consumer} a dedicated thread receives datagrams and delivers every message as a slice of the
+ * receive buffer. Datagrams older than the last one seen from the same sender are dropped. Every communication
+ * picks a random session when built, so a datagram from the same address with another session marks a restarted
+ * sender, even if its first datagrams were lost: the receiver starts over and counts the messages numbered before
+ * the first one it got as lost.
+ */
+public class DatagramCommunication extends MinimalCommunication {
+    public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1472; // bytes, fits a 1500 bytes Ethernet MTU
+    static final int DATAGRAM_HEADER_SIZE = 14; // sequence, message count and session
+    static final int MESSAGE_HEADER_SIZE = 2;
+    static final int MAX_DATAGRAM_SIZE = 65507; // largest UDP payload over IPv4
+
+    private final String host;
+    private final int port;
+    private final String remoteHost;
+    private final int remotePort;
+    private final boolean autoFlush;
+    private final DatagramChannel channel;
+    private final SocketAddress remoteAddress;
+    private final ByteBuffer datagram; // guarded by itself
+    private int messageCount; // in the current datagram, guarded by datagram
+    private long nextSequence; // guarded by datagram
+    private final int session = ThreadLocalRandom.current().nextInt();
+    private final AtomicLong lostMessages = new AtomicLong();
+    private final Thread receiver;
+    private final Consumer deliveryConsumer;
+
+    private DatagramCommunication(Builder builder) {
+        super(builder);
+        host = builder.host;
+        port = builder.port;
+        remoteHost = builder.remoteHost;
+        remotePort = builder.remotePort;
+        autoFlush = builder.autoFlush;
+        channel = builder.channel;
+        remoteAddress = builder.remoteAddress;
+        datagram = ByteBuffer.allocateDirect(builder.maxDatagramSize);
+        datagram.position(DATAGRAM_HEADER_SIZE);
+        deliveryConsumer = decorated(getConsumer());
+        if (getConsumer() == null) {
+            receiver = null;
+        } else {
+            receiver = new Thread(this::receive, "datagram-receiver-" + getName());
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    public int getMaxDatagramSize() {
+        return datagram.capacity();
+    }
+
+    public boolean isAutoFlush() {
+        return autoFlush;
+    }
+
+    /**
+     * @return number of messages missing from the sequences received so far
+     */
+    public long getLostMessageCount() {
+        return lostMessages.get();
+    }
+
+    @Override
+    public void send(byte[] bytes) throws Exception {
+        send(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        long start = sendStarted();
+        synchronized (datagram) {
+            reserve(length);
+            datagram.putShort((short) length).put(bytes, offset, length);
+            messageWritten();
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        long start = sendStarted();
+        int length = buffer.remaining();
+        synchronized (datagram) {
+            reserve(length);
+            datagram.putShort((short) length).put(buffer);
+            messageWritten();
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    /**
+     * Packs the messages into as few datagrams as possible, whatever {@code autoFlush} is.
+     */
+    @Override
+    public void sendBatch(byte[]... messages) throws Exception {
+        long start = sendStarted();
+        long bytes = 0;
+        synchronized (datagram) {
+            for (byte[] message : messages) {
+                reserve(message.length);
+                datagram.putShort((short) message.length).put(message);
+                messageCount++;
+                bytes += message.length;
+            }
+            if (autoFlush) {
+                flushDatagram();
+            }
+        }
+        sendCompleted(start, messages.length, bytes);
+    }
+
+    /**
+     * Messages packed into the current datagram and not sent yet.
+     */
+    @Override
+    protected long queueDepth() {
+        synchronized (datagram) {
+            return messageCount;
+        }
+    }
+
+    /**
+     * Sends the messages packed so far.
+     */
+    public void flush() throws IOException {
+        synchronized (datagram) {
+            flushDatagram();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            synchronized (datagram) {
+                flushDatagram();
+            }
+        } finally {
+            channel.close(); // wakes the receiver up
+            if (receiver != null && receiver != Thread.currentThread()) {
+                receiver.join();
+            }
+        }
+    }
+
+    private void reserve(int length) throws IOException {
+        if (remoteAddress == null) {
+            throw new IllegalStateException("No remote host");
+        }
+        if (length > datagram.capacity() - DATAGRAM_HEADER_SIZE - MESSAGE_HEADER_SIZE) {
+            throw new IllegalStateException("Too big message");
+        }
+        if (datagram.remaining() < MESSAGE_HEADER_SIZE + length) {
+            flushDatagram();
+        }
+    }
+
+    private void messageWritten() throws IOException {
+        messageCount++;
+        if (autoFlush) {
+            flushDatagram();
+        }
+    }
+
+    private void flushDatagram() throws IOException {
+        if (messageCount == 0) {
+            return;
+        }
+        datagram.putLong(0, nextSequence).putShort(8, (short) messageCount).putInt(10, session);
+        datagram.flip();
+        try {
+            channel.send(datagram, remoteAddress);
+        } finally {
+            nextSequence += messageCount;
+            messageCount = 0;
+            datagram.clear();
+            datagram.position(DATAGRAM_HEADER_SIZE);
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        Map<SocketAddress, SenderState> senders = new HashMap<>();
+        while (true) {
+            SocketAddress sender;
+            buffer.clear();
+            try {
+                sender = channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            buffer.flip();
+            if (buffer.remaining() < DATAGRAM_HEADER_SIZE) {
+                continue;
+            }
+            long sequence = buffer.getLong();
+            int count = buffer.getShort() & 0xFFFF;
+            int session = buffer.getInt();
+            SenderState state = senders.get(sender);
+            if (state == null) {
+                state = new SenderState();
+                state.session = session;
+                state.expected = sequence; // joined late, nothing lost so far
+                senders.put(sender, state);
+            } else if (session != state.session) {
+                state.session = session; // restarted, numbering from 0 again
+                state.expected = 0;
+            } else if (sequence < state.expected) {
+                continue; // late or duplicated
+            }
+            if (sequence > state.expected) {
+                lostMessages.addAndGet(sequence - state.expected);
+            }
+            state.expected = sequence + count;
+            deliver(buffer, count);
+        }
+    }
+
+    private void deliver(ByteBuffer buffer, int count) {
+        int end = buffer.limit();
+        for (int i = 0; i < count && buffer.remaining() >= MESSAGE_HEADER_SIZE; i++) {
+            int length = buffer.getShort() & 0xFFFF;
+            int next = buffer.position() + length;
+            if (next > end) {
+                return; // truncated datagram
+            }
+            buffer.limit(next);
+            try {
+                deliveryConsumer.handleDelivery(buffer);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            buffer.limit(end).position(next);
+        }
+    }
+
+    private static final class SenderState {
+        int session;
+        long expected;
+    }
+
+    public static class Builder extends MinimalCommunication.Builder {
+        private String host;
+        private int port;
+        private String remoteHost;
+        private int remotePort;
+        private String multicastGroup;
+        private String networkInterface;
+        private int maxDatagramSize = DEFAULT_MAX_DATAGRAM_SIZE;
+        private boolean autoFlush = true;
+        private DatagramChannel channel;
+        private SocketAddress remoteAddress;
+
+        /**
+         * Local address to bind to, the wildcard address if not set.
+         */
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Peer or multicast group messages are sent to. Required for sending only.
+         */
+        public Builder remoteHost(String remoteHost) {
+            this.remoteHost = remoteHost;
+            return this;
+        }
+
+        public Builder remotePort(int remotePort) {
+            this.remotePort = remotePort;
+            return this;
+        }
+
+        /**
+         * Multicast group to join for receiving, on {@code networkInterface}. The channel is bound to {@code port}
+         * with the address reusable, so several receivers may share a host.
+         */
+        public Builder multicastGroup(String multicastGroup) {
+            this.multicastGroup = multicastGroup;
+            return this;
+        }
+
+        /**
+         * Name of the interface to join {@code multicastGroup} on and to send multicast datagrams from.
+         */
+        public Builder networkInterface(String networkInterface) {
+            this.networkInterface = networkInterface;
+            return this;
+        }
+
+        /**
+         * Largest datagram to send, headers included. Keep it within the path MTU to avoid IP fragmentation.
+         */
+        public Builder maxDatagramSize(int maxDatagramSize) {
+            this.maxDatagramSize = maxDatagramSize;
+            return this;
+        }
+
+        public Builder autoFlush(boolean autoFlush) {
+            this.autoFlush = autoFlush;
+            return this;
+        }
+
+        @Override
+        public DatagramCommunication build() {
+            if (maxDatagramSize <= DATAGRAM_HEADER_SIZE + MESSAGE_HEADER_SIZE || maxDatagramSize > MAX_DATAGRAM_SIZE) {
+                return null;
+            }
+            try {
+                NetworkInterface multicastInterface = null;
+                if (networkInterface != null) {
+                    multicastInterface = NetworkInterface.getByName(networkInterface);
+                    if (multicastInterface == null) {
+                        throw new IOException("No network interface " + networkInterface);
+                    }
+                }
+                InetAddress group = multicastGroup == null ? null : InetAddress.getByName(multicastGroup);
+                if (group != null && multicastInterface == null) {
+                    throw new IOException("Joining " + multicastGroup + " requires a network interface");
+                }
+                channel = group == null
+                        ? DatagramChannel.open()
+                        : DatagramChannel.open(group.getAddress().length == 4
+                        ? StandardProtocolFamily.INET
+                        : StandardProtocolFamily.INET6);
+                if (group != null) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                }
+                if (multicastInterface != null) {
+                    channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastInterface);
+                }
+                channel.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+                if (group != null) {
+                    channel.join(group, multicastInterface);
+                }
+                remoteAddress = remoteHost == null ? null : new InetSocketAddress(remoteHost, remotePort);
+                return new DatagramCommunication(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
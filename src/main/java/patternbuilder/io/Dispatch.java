@@ -0,0 +1,28 @@
+package patternbuilder.io;
+
+import patternbuilder.core.Communication;
+
+/**
+ * Thread a communication runs {@link Communication.Consumer#handleDelivery(byte[])} on.
+ * <p>
+ * The modes other than {@link #DIRECT} hand every message over as a copy, so consumers may block on databases
+ * or remote calls without stalling the thread that received the message, such as an event loop. They use virtual
+ * threads on Java 21+. Older versions share a pool with a daemon thread per available processor instead, where
+ * blocking consumers hold up each other's messages. Exceptions thrown by the consumer are printed instead of being
+ * propagated to the delivering thread.
+ */
+public enum Dispatch {
+    /**
+     * On the thread delivering the message, the default.
+     */
+    DIRECT,
+    /**
+     * Every message on its own virtual thread, so slow deliveries overlap and complete in any order.
+     */
+    VIRTUAL_THREAD_PER_MESSAGE,
+    /**
+     * On a virtual thread per consumer, one message after another in delivery order. The thread ends once there
+     * is nothing left to deliver and a new one starts for the next message.
+     */
+    VIRTUAL_THREAD_PER_CONSUMER
+}
@@ -0,0 +1,75 @@
+package patternbuilder.io;
+
+import patternbuilder.core.Communication;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copies every message and delivers it to the wrapped consumer on {@link VirtualThreads#executor()}, as
+ * {@link Dispatch} describes.
+ */
+final class DispatchingConsumer implements Communication.Consumer {
+    private final Communication.Consumer consumer;
+    private final Executor executor = VirtualThreads.executor();
+    private final Queue<byte[]> pending; // per consumer only
+    private final AtomicBoolean draining;
+
+    DispatchingConsumer(Communication.Consumer consumer, Dispatch dispatch) {
+        this.consumer = consumer;
+        boolean ordered = dispatch == Dispatch.VIRTUAL_THREAD_PER_CONSUMER;
+        pending = ordered ? new ConcurrentLinkedQueue<>() : null;
+        draining = ordered ? new AtomicBoolean() : null;
+    }
+
+    @Override
+    public void handleDelivery(byte[] bytes) {
+        dispatch(bytes.clone());
+    }
+
+    @Override
+    public void handleDelivery(byte[] bytes, int offset, int length) {
+        dispatch(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    @Override
+    public void handleDelivery(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        dispatch(bytes);
+    }
+
+    private void dispatch(byte[] bytes) {
+        if (pending == null) {
+            executor.execute(() -> deliver(bytes));
+            return;
+        }
+        pending.add(bytes);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        do {
+            byte[] bytes;
+            while ((bytes = pending.poll()) != null) {
+                deliver(bytes);
+            }
+            draining.set(false);
+            // a message added after the last poll may have found the flag still set
+        } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void deliver(byte[] bytes) {
+        try {
+            consumer.handleDelivery(bytes);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
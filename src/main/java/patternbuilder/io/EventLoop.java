@@ -0,0 +1,129 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Single thread multiplexing many channels through one {@link Selector}.
+ * <p>
+ * Channels are registered together with a {@link Handler} which is invoked on the loop thread whenever
+ * the channel is ready. Any other work touching the selector (registration, interest changes) is
+ * submitted through {@link #execute(Runnable)}.
+ */
+final class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers {@code channel} with this loop without waiting for it, so that any thread, another loop included,
+     * may register. Tasks executed afterwards run once the channel is registered; {@code registered}, if not
+     * {@code null}, receives the key on the loop. A channel closed in the meantime is skipped.
+     */
+    void register(SelectableChannel channel, int ops, Handler handler, Consumer<SelectionKey> registered) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, ops, handler);
+                if (registered != null) {
+                    registered.accept(key);
+                }
+            } catch (ClosedChannelException ignored) {
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                wakenUp.set(false);
+                processSelectedKeys();
+                runTasks();
+            } catch (IOException ignored) { // tried again on the next turn, the loop only ends through close()
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    void close() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        if (!inEventLoop()) {
+            thread.join();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Handler handler = (Handler) key.attachment();
+            try {
+                if (key.isValid()) {
+                    handler.handle(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                key.cancel();
+                closeQuietly(key.channel());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ignored) { // tasks handle their own failures, this one must not stop the loop
+            }
+        }
+    }
+
+    private static void closeQuietly(SelectableChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Reacts to readiness of a registered channel. Always called on the loop thread. A handler that throws has its
+     * channel closed, so handlers owning more than the channel clean up before throwing.
+     */
+    interface Handler {
+        void handle(SelectionKey key) throws IOException;
+    }
+}
@@ -0,0 +1,52 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of selector threads shared by many {@link NetworkCommunication}s.
+ * <p>
+ * Every communication built with the group is pinned to one of its loops (round-robin), so a handful of
+ * threads can serve thousands of connections.
+ */
+public class EventLoopGroup implements AutoCloseable {
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public EventLoopGroup(int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        loops = new EventLoop[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            loops[i] = new EventLoop("patternbuilder-event-loop-" + i);
+        }
+    }
+
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    EventLoop next() {
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * Stops all loops and waits for their threads to finish. If interrupted, stops the remaining loops too and
+     * restores the interrupt status.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        for (EventLoop loop : loops) {
+            try {
+                loop.close();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,43 +1,526 @@
 package patternbuilder.io;
 
+import patternbuilder.core.Communication;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
 /**
+ * Delivers messages to the consumers within the same JVM.
+ * <p>
+ * By default {@link #send(byte[])} calls the consumers on the sending thread. In asynchronous mode messages
+ * are copied into a preallocated ring of {@code ringSize} slots of {@code memoryBufferSize} bytes each and
+ * delivered by a dedicated thread per consumer, so producers never wait for a slow consumer unless the ring is full.
+ * <p>
+ * Every message is broadcast to all consumers: the {@code consumer} of the builder plus any added with
+ * {@link Builder#addConsumer(Communication.Consumer)} or, at runtime, {@link #addConsumer(Communication.Consumer)}.
+ * In asynchronous mode they all read the same ring slot, without copying, each at its own pace.
+ * <p>
+ * The {@link OverflowPolicy} decides whether a producer finding the ring full waits or drops a message.
+ *
  * @author Roman Katerinenko
  */
 public class InMemoryCommunication extends MinimalCommunication {
+    public static final int DEFAULT_RING_SIZE = 1024; // slots
+    public static final int DEFAULT_OVERFLOW_SIZE = 1024; // messages
+    public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5_000;
+    private static final long CLOSE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final Consumer[] NO_CONSUMERS = new Consumer[0];
+    private static final RingBufferDispatcher[] NO_DISPATCHERS = new RingBufferDispatcher[0];
+
     private final int memoryBufferSize;
+    private final RingBuffer ringBuffer;
+    private final OverflowPolicy overflowPolicy;
+    private final int overflowSize;
+    private final Function<byte[], Object> conflationKey;
+    private final long closeTimeoutMillis;
+    private final Map<Object, Pending> overflow = new LinkedHashMap<>(); // in send order, guarded by itself
+    private volatile int overflowCount; // updated under overflow
+    private final Object spaceAvailable = new Object(); // producers blocked on a full ring wait on it
+    private volatile int blockedProducers; // updated under spaceAvailable
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private volatile Consumer[] consumers = NO_CONSUMERS; // updated under this
+    private volatile Consumer[] deliveryConsumers = NO_CONSUMERS; // same ones, decorated
+    private volatile RingBufferDispatcher[] dispatchers = NO_DISPATCHERS; // updated under this
+    private int dispatcherCount; // for thread names
 
     private InMemoryCommunication(Builder builder) {
         super(builder);
         memoryBufferSize = builder.memoryBufferSize;
+        ringBuffer = builder.asynchronous
+                ? new RingBuffer(RingBuffer.ceilingPowerOfTwo(builder.ringSize), memoryBufferSize,
+                builder.waitStrategy)
+                : null;
+        overflowPolicy = builder.overflowPolicy;
+        overflowSize = builder.overflowSize;
+        conflationKey = builder.conflationKey;
+        closeTimeoutMillis = builder.closeTimeoutMillis;
+        if (ringBuffer != null) {
+            ringBuffer.onSpaceFreed(this::spaceFreed);
+        }
+        if (getConsumer() != null) {
+            addConsumer(getConsumer());
+        }
+        for (Consumer consumer : builder.consumers) {
+            addConsumer(consumer);
+        }
     }
 
     @Override
     public void send(byte[] bytes) throws Exception {
+        send(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        if (length > memoryBufferSize) {
+            throw new IllegalStateException("Too big message");
+        }
+        long start = sendStarted();
+        if (ringBuffer == null) {
+            for (Consumer consumer : deliveryConsumers) {
+                consumer.handleDelivery(bytes, offset, length);
+            }
+        } else {
+            long sequence = claim();
+            if (sequence >= 0) {
+                System.arraycopy(bytes, offset, ringBuffer.slot(sequence), 0, length);
+                ringBuffer.publish(sequence, length);
+            } else if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                drop(null);
+            } else {
+                overflow(Arrays.copyOfRange(bytes, offset, offset + length), null);
+            }
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        int length = buffer.remaining();
+        if (length > memoryBufferSize) {
+            throw new IllegalStateException("Too big message");
+        }
+        long start = sendStarted();
+        if (ringBuffer == null) {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            for (Consumer consumer : deliveryConsumers) {
+                buffer.limit(limit).position(position);
+                consumer.handleDelivery(buffer);
+            }
+            buffer.limit(limit).position(limit);
+        } else {
+            long sequence = claim();
+            if (sequence >= 0) {
+                buffer.get(ringBuffer.slot(sequence), 0, length);
+                ringBuffer.publish(sequence, length);
+            } else if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                buffer.position(buffer.limit());
+                drop(null);
+            } else {
+                byte[] copy = new byte[length];
+                buffer.get(copy);
+                overflow(copy, null);
+            }
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    /**
+     * In asynchronous mode the future completes once every consumer has handled the message, or exceptionally
+     * once the message is dropped.
+     */
+    @Override
+    protected CompletableFuture<Void> doSendAsync(byte[] bytes) throws Exception {
+        if (ringBuffer == null || dispatchers.length == 0) {
+            return super.doSendAsync(bytes);
+        }
         if (bytes.length > memoryBufferSize) {
             throw new IllegalStateException("Too big message");
         }
-        getConsumer().handleDelivery(bytes);
+        long start = sendStarted();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        long sequence = claim();
+        if (sequence >= 0) {
+            System.arraycopy(bytes, 0, ringBuffer.slot(sequence), 0, bytes.length);
+            ringBuffer.publish(sequence, bytes.length, result);
+        } else if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            drop(result);
+        } else {
+            overflow(bytes.clone(), result);
+        }
+        sendCompleted(start, 1, bytes.length);
+        return result;
+    }
+
+    /**
+     * Starts broadcasting to {@code consumer}. In asynchronous mode it receives messages published from now on.
+     */
+    public synchronized void addConsumer(Consumer consumer) {
+        Consumer deliveryConsumer = decorated(consumer);
+        if (ringBuffer != null) {
+            String name = "in-memory-dispatcher-" + getName() + "-" + dispatcherCount++;
+            dispatchers = append(dispatchers, new RingBufferDispatcher(ringBuffer, deliveryConsumer, name));
+        }
+        deliveryConsumers = append(deliveryConsumers, deliveryConsumer);
+        consumers = append(consumers, consumer);
+    }
+
+    /**
+     * Stops broadcasting to {@code consumer}. In asynchronous mode it first receives every message already published.
+     */
+    public void removeConsumer(Consumer consumer) throws InterruptedException {
+        RingBufferDispatcher removed = null;
+        synchronized (this) {
+            int index = Arrays.asList(consumers).indexOf(consumer);
+            if (index < 0) {
+                return;
+            }
+            Consumer deliveryConsumer = deliveryConsumers[index];
+            consumers = remove(consumers, index);
+            deliveryConsumers = remove(deliveryConsumers, index);
+            List<RingBufferDispatcher> remainingDispatchers = new ArrayList<>(Arrays.asList(dispatchers));
+            for (RingBufferDispatcher dispatcher : remainingDispatchers) {
+                if (dispatcher.getConsumer() == deliveryConsumer) {
+                    removed = dispatcher;
+                    break;
+                }
+            }
+            remainingDispatchers.remove(removed);
+            dispatchers = remainingDispatchers.toArray(NO_DISPATCHERS);
+        }
+        if (removed != null) {
+            removed.halt();
+        }
+    }
+
+    public List<Consumer> getConsumers() {
+        return Collections.unmodifiableList(Arrays.asList(consumers));
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getOverflowSize() {
+        return overflowSize;
     }
 
+    public long getCloseTimeoutMillis() {
+        return closeTimeoutMillis;
+    }
+
+    /**
+     * @return number of messages dropped by the {@link OverflowPolicy}, conflated ones included, and those
+     * {@link #close()} gave up on
+     */
+    public long getDroppedMessageCount() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return number of messages sent with {@code send} that a consumer threw on in asynchronous mode; those sent
+     * with {@code sendAsync} fail their future instead
+     */
+    public long getFailedDeliveryCount() {
+        return ringBuffer == null ? 0 : ringBuffer.getFailedDeliveryCount();
+    }
+
+    /**
+     * Gives the messages still waiting in front of a full ring up to {@code closeTimeoutMillis} to move into it, if
+     * there are consumers, then halts the dispatchers within the same time. Messages still waiting by then, behind a
+     * stuck or slow consumer, are dropped: they are counted by {@link #getDroppedMessageCount()} and their futures
+     * fail. A dispatcher still stuck in its consumer finishes on its own.
+     */
     @Override
     public void close() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(closeTimeoutMillis);
+        while (overflowCount > 0 && dispatchers.length > 0 && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(CLOSE_POLL_NANOS);
+        }
+        if (overflowCount > 0) {
+            synchronized (overflow) {
+                for (Pending pending : overflow.values()) {
+                    drop(pending.completion, "Dropped on close");
+                }
+                overflow.clear();
+                overflowCount = 0;
+            }
+        }
+        RingBufferDispatcher[] halted;
+        synchronized (this) {
+            halted = dispatchers;
+            dispatchers = NO_DISPATCHERS;
+        }
+        for (RingBufferDispatcher dispatcher : halted) {
+            dispatcher.halt(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
     }
 
     public int getMemoryBufferSize() {
         return memoryBufferSize;
     }
 
+    public boolean isAsynchronous() {
+        return ringBuffer != null;
+    }
+
+    /**
+     * @return how dispatchers wait for messages, {@code null} unless asynchronous
+     */
+    public WaitStrategy getWaitStrategy() {
+        return ringBuffer == null ? null : ringBuffer.getWaitStrategy();
+    }
+
+    public int getRingSize() {
+        return ringBuffer == null ? 0 : ringBuffer.getSize();
+    }
+
+    /**
+     * Messages published but not delivered to every consumer yet, in asynchronous mode, and the ones waiting in
+     * front of the ring.
+     */
+    @Override
+    protected long queueDepth() {
+        return ringBuffer == null ? 0 : ringBuffer.getBacklog() + overflowCount;
+    }
+
+    /**
+     * @return claimed sequence, or a negative value if the message has to be dropped or queued in front of the ring
+     */
+    private long claim() throws InterruptedException {
+        switch (overflowPolicy) {
+            case SPIN_THEN_PARK:
+                return ringBuffer.claim();
+            case BLOCK:
+                return claimBlocking();
+            default:
+                return overflowCount > 0 ? -1 : ringBuffer.tryClaim(); // queued messages go first
+        }
+    }
+
+    private long claimBlocking() throws InterruptedException {
+        long sequence = ringBuffer.tryClaim();
+        if (sequence >= 0) {
+            return sequence;
+        }
+        synchronized (spaceAvailable) {
+            blockedProducers++; // before retrying, so that a consumer freeing space now notifies
+            try {
+                while ((sequence = ringBuffer.tryClaim()) < 0) {
+                    spaceAvailable.wait();
+                }
+            } finally {
+                blockedProducers--;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Queues {@code bytes} in front of the ring as the {@link OverflowPolicy} says.
+     */
+    private void overflow(byte[] bytes, CompletableFuture<Void> completion) {
+        Pending pending = new Pending(bytes, completion);
+        synchronized (overflow) {
+            drainOverflow();
+            Object key = overflowPolicy == OverflowPolicy.CONFLATE ? conflationKey.apply(bytes) : pending;
+            Pending replaced = overflow.put(key, pending); // a replaced message keeps its place
+            if (replaced != null) {
+                drop(replaced.completion);
+            } else if (overflow.size() > overflowSize) {
+                Iterator<Pending> oldest = overflow.values().iterator();
+                drop(oldest.next().completion);
+                oldest.remove();
+            }
+            drainOverflow(); // a consumer may have freed the ring before it could see the queued message
+        }
+    }
+
+    /**
+     * Moves queued messages into the ring while there is room. Called under {@code overflow}.
+     */
+    private void drainOverflow() {
+        Iterator<Pending> queued = overflow.values().iterator();
+        while (queued.hasNext()) {
+            long sequence = ringBuffer.tryClaim();
+            if (sequence < 0) {
+                break;
+            }
+            publish(sequence, queued.next());
+            queued.remove();
+        }
+        overflowCount = overflow.size();
+    }
+
+    private void publish(long sequence, Pending pending) {
+        System.arraycopy(pending.bytes, 0, ringBuffer.slot(sequence), 0, pending.bytes.length);
+        if (pending.completion == null) {
+            ringBuffer.publish(sequence, pending.bytes.length);
+        } else {
+            ringBuffer.publish(sequence, pending.bytes.length, pending.completion);
+        }
+    }
+
+    private void drop(CompletableFuture<Void> completion) {
+        drop(completion, "Dropped by " + overflowPolicy);
+    }
+
+    private void drop(CompletableFuture<Void> completion, String reason) {
+        droppedMessages.incrementAndGet();
+        if (completion != null) {
+            completion.completeExceptionally(new IllegalStateException(reason));
+        }
+    }
+
+    /**
+     * Called by dispatchers once slots are free for reuse.
+     */
+    private void spaceFreed() {
+        if (blockedProducers > 0) {
+            synchronized (spaceAvailable) {
+                spaceAvailable.notifyAll();
+            }
+        }
+        if (overflowCount > 0) {
+            synchronized (overflow) {
+                drainOverflow();
+            }
+        }
+    }
+
+    private static final class Pending {
+        final byte[] bytes;
+        final CompletableFuture<Void> completion; // of sendAsync, may be null
+
+        Pending(byte[] bytes, CompletableFuture<Void> completion) {
+            this.bytes = bytes;
+            this.completion = completion;
+        }
+    }
+
+    private static <T> T[] append(T[] array, T element) {
+        T[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = element;
+        return result;
+    }
+
+    private static <T> T[] remove(T[] array, int index) {
+        T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
     public static class Builder extends MinimalCommunication.Builder {
         private int memoryBufferSize;
+        private boolean asynchronous;
+        private int ringSize = DEFAULT_RING_SIZE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.SPIN_THEN_PARK;
+        private int overflowSize = DEFAULT_OVERFLOW_SIZE;
+        private Function<byte[], Object> conflationKey;
+        private WaitStrategy waitStrategy = WaitStrategy.BACKOFF;
+        private long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+        private List<Consumer> consumers = new ArrayList<>(); // replaced in copies
 
         public Builder memoryBufferSize(int memoryBufferSize) {
             this.memoryBufferSize = memoryBufferSize;
             return this;
         }
 
+        /**
+         * Delivers messages on a dedicated thread per consumer instead of the sending one.
+         */
+        public Builder asynchronous(boolean asynchronous) {
+            this.asynchronous = asynchronous;
+            return this;
+        }
+
+        /**
+         * Number of ring slots in asynchronous mode, rounded up to a power of two.
+         */
+        public Builder ringSize(int ringSize) {
+            this.ringSize = ringSize;
+            return this;
+        }
+
+        /**
+         * What a producer does when the ring is full, {@link OverflowPolicy#SPIN_THEN_PARK} by default. Only
+         * applies in asynchronous mode.
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Number of messages {@link OverflowPolicy#DROP_OLDEST} and {@link OverflowPolicy#CONFLATE} keep waiting
+         * in front of a full ring.
+         */
+        public Builder overflowSize(int overflowSize) {
+            this.overflowSize = overflowSize;
+            return this;
+        }
+
+        /**
+         * Key of a message for {@link OverflowPolicy#CONFLATE}, called with a copy of the message. Keys are
+         * compared with {@code equals}.
+         */
+        public Builder conflationKey(Function<byte[], Object> conflationKey) {
+            this.conflationKey = conflationKey;
+            return this;
+        }
+
+        /**
+         * How dispatchers wait for messages in asynchronous mode, {@link WaitStrategy#BACKOFF} by default.
+         */
+        public Builder waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * Longest time {@link InMemoryCommunication#close()} waits for messages queued in front of a full ring,
+         * {@value #DEFAULT_CLOSE_TIMEOUT_MILLIS} milliseconds by default.
+         */
+        public Builder closeTimeoutMillis(long closeTimeoutMillis) {
+            this.closeTimeoutMillis = closeTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Adds a consumer receiving every message in addition to {@code consumer}.
+         */
+        public Builder addConsumer(Communication.Consumer consumer) {
+            consumers.add(consumer);
+            return this;
+        }
+
+        @Override
+        Builder copy() {
+            Builder copy = (Builder) super.copy();
+            copy.consumers = new ArrayList<>(consumers);
+            return copy;
+        }
+
         @Override
         public InMemoryCommunication build() {
+            if (asynchronous && ringSize < 1 || overflowPolicy == null || overflowSize < 1 || waitStrategy == null
+                    || closeTimeoutMillis < 0 || overflowPolicy == OverflowPolicy.CONFLATE && conflationKey == null) {
+                return null;
+            }
             return new InMemoryCommunication(this);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,213 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Appends every message to a journal of memory-mapped segment files in {@code directory}, then delivers it to the
+ * {@code consumer} on the sending thread.
+ * <p>
+ * Messages are numbered consecutively from {@code 0}. A segment is preallocated to {@code segmentSize} bytes and
+ * named after the sequence number of its first message; once a message does not fit, the journal rolls over to a
+ * new segment. Records carry their length, a CRC32 checksum and the time they were appended, see
+ * {@link JournalSegment}. Reopening a directory continues after the last valid record, dropping a record torn by
+ * a crash.
+ * <p>
+ * Appended records survive a crash of the process as soon as {@code send} returns, the operating system writes
+ * them to the storage device eventually; {@link #flush()} forces it to do so. The consumer receives the payload in
+ * place, as a slice of the mapped segment.
+ * <p>
+ * Journaled messages can be replayed from a sequence number, or from the time they were appended, see
+ * {@link #replay(long, Consumer)} and {@link #findSequence(long)}. Timestamps never decrease, even if the clock
+ * is set back.
+ */
+public class JournalCommunication extends MinimalCommunication {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024; // bytes
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxMessageSize;
+    private final Object sendLock = new Object();
+    private JournalSegment segment; // guarded by sendLock
+    private boolean closed; // guarded by sendLock
+    private long lastTimestamp; // guarded by sendLock
+    private final Consumer deliveryConsumer;
+
+    private JournalCommunication(Builder builder) {
+        super(builder);
+        directory = builder.directory;
+        segmentSize = builder.segmentSize;
+        maxMessageSize = segmentSize - JournalSegment.SEGMENT_HEADER_SIZE - JournalSegment.RECORD_HEADER_SIZE;
+        segment = builder.segment;
+        lastTimestamp = segment.getLastTimestamp();
+        deliveryConsumer = decorated(getConsumer());
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * @return sequence number of the next message to be sent
+     */
+    public long getNextSequence() {
+        synchronized (sendLock) {
+            return segment.getNextSequence();
+        }
+    }
+
+    /**
+     * Delivers the journaled messages numbered from {@code fromSequence} on to {@code consumer} on the calling
+     * thread, each as a slice of the mapped segment. Messages sent meanwhile are not included. Messages before the
+     * oldest segment left in the directory are skipped.
+     *
+     * @return sequence number to continue from, the one following the last replayed message
+     */
+    public long replay(long fromSequence, Consumer consumer) throws IOException {
+        return JournalReader.replay(directory, fromSequence, getNextSequence(), consumer);
+    }
+
+    /**
+     * @return sequence number of the first message journaled at or after {@code timestamp} (milliseconds since the
+     * epoch), {@link #getNextSequence()} if there is none yet
+     */
+    public long findSequence(long timestamp) throws IOException {
+        return JournalReader.findSequence(directory, timestamp, getNextSequence());
+    }
+
+    @Override
+    public void send(byte[] bytes) throws Exception {
+        send(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        long start = sendStarted();
+        synchronized (sendLock) {
+            JournalSegment target = reserve(length);
+            int payload = target.append(timestamp(), bytes, offset, length);
+            deliver(target, payload, length);
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        long start = sendStarted();
+        int length = buffer.remaining();
+        synchronized (sendLock) {
+            JournalSegment target = reserve(length);
+            int payload = target.append(timestamp(), buffer);
+            deliver(target, payload, length);
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    /**
+     * Writes the journaled messages through to the storage device.
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            if (!closed) {
+                segment.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (sendLock) {
+            if (!closed) {
+                closed = true;
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * @return segment with room for a message of {@code length} bytes, rolling over to a new one if needed
+     */
+    private JournalSegment reserve(int length) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Closed");
+        }
+        if (length > maxMessageSize) {
+            throw new IllegalStateException("Too big message");
+        }
+        if (!segment.hasRoom(length)) {
+            long nextSequence = segment.getNextSequence();
+            if (nextSequence == segment.getBaseSequence()) { // an empty segment reopened with a smaller size
+                segment.close();
+                Files.delete(segment.getFile());
+                Files.delete(JournalSegment.indexFile(segment.getFile()));
+            }
+            JournalSegment next = JournalSegment.create(directory, nextSequence, segmentSize);
+            segment.close();
+            segment = next;
+        }
+        return segment;
+    }
+
+    private long timestamp() {
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        return lastTimestamp;
+    }
+
+    private void deliver(JournalSegment target, int payload, int length) {
+        if (deliveryConsumer != null) {
+            deliveryConsumer.handleDelivery(target.payload(payload, length));
+        }
+    }
+
+    public static class Builder extends MinimalCommunication.Builder {
+        private Path directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private JournalSegment segment;
+
+        /**
+         * Directory holding the segment files, created if missing. An existing journal is continued.
+         */
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Size of every new segment file in bytes, which also bounds the size of a message.
+         */
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        @Override
+        public JournalCommunication build() {
+            if (directory == null
+                    || segmentSize <= JournalSegment.SEGMENT_HEADER_SIZE + JournalSegment.RECORD_HEADER_SIZE) {
+                return null;
+            }
+            try {
+                Files.createDirectories(directory);
+                List<Path> files = JournalSegment.list(directory);
+                segment = files.isEmpty()
+                        ? JournalSegment.create(directory, 0, segmentSize)
+                        : JournalSegment.open(files.get(files.size() - 1));
+                return new JournalCommunication(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+}
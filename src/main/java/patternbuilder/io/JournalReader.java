@@ -0,0 +1,212 @@
+package patternbuilder.io;
+
+import patternbuilder.core.Communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static patternbuilder.io.JournalSegment.INDEX_ENTRY_SIZE;
+import static patternbuilder.io.JournalSegment.INDEX_POSITION_OFFSET;
+import static patternbuilder.io.JournalSegment.INDEX_TIMESTAMP_OFFSET;
+import static patternbuilder.io.JournalSegment.RECORD_HEADER_SIZE;
+import static patternbuilder.io.JournalSegment.SEGMENT_HEADER_SIZE;
+import static patternbuilder.io.JournalSegment.TIMESTAMP_OFFSET;
+
+/**
+ * Reads the segments of a {@link JournalCommunication} through read-only mappings of their own, next to the one
+ * appending to the last segment.
+ * <p>
+ * A seek finds the segment by a binary search over the segments, then the nearest preceding record by a binary
+ * search over its sparse index, and scans forward from there. Reading stops at {@code endSequence}, which the
+ * caller must have seen appended.
+ */
+final class JournalReader {
+    private JournalReader() {
+    }
+
+    /**
+     * Delivers the messages numbered from {@code fromSequence} up to {@code endSequence} to {@code consumer}, each
+     * as the remaining bytes of a view of the mapped segment.
+     *
+     * @return sequence number following the last delivered message
+     */
+    static long replay(Path directory, long fromSequence, long endSequence, Communication.Consumer consumer)
+            throws IOException {
+        List<Path> files = JournalSegment.list(directory);
+        long sequence = Math.max(fromSequence, files.isEmpty() ? 0 : JournalSegment.baseSequence(files.get(0)));
+        for (int i = Math.max(segmentFor(files, sequence), 0); i < files.size() && sequence < endSequence; i++) {
+            Segment segment = new Segment(files.get(i));
+            Cursor cursor = segment.seekSequence(sequence);
+            while (cursor.next() && cursor.sequence < endSequence) {
+                if (cursor.sequence >= sequence) {
+                    consumer.handleDelivery(cursor.payload());
+                    sequence = cursor.sequence + 1;
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @return sequence number of the first message appended at or after {@code timestamp}, {@code endSequence}
+     * if there is none
+     */
+    static long findSequence(Path directory, long timestamp, long endSequence) throws IOException {
+        List<Path> files = JournalSegment.list(directory);
+        int low = 0;
+        int high = files.size() - 1;
+        int first = 0; // the last segment starting before the timestamp
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Segment segment = new Segment(files.get(middle));
+            if (segment.isEmpty() || segment.mapped.getLong(SEGMENT_HEADER_SIZE + TIMESTAMP_OFFSET) >= timestamp) {
+                high = middle - 1;
+            } else {
+                first = middle;
+                low = middle + 1;
+            }
+        }
+        for (int i = first; i < files.size(); i++) {
+            Cursor cursor = new Segment(files.get(i)).seekTimestamp(timestamp);
+            while (cursor.next() && cursor.sequence < endSequence) {
+                if (cursor.timestamp() >= timestamp) {
+                    return cursor.sequence;
+                }
+            }
+        }
+        return endSequence;
+    }
+
+    /**
+     * @return index of the last segment starting at or before {@code sequence}, {@code -1} if there is none
+     */
+    private static int segmentFor(List<Path> files, long sequence) {
+        int low = 0;
+        int high = files.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (JournalSegment.baseSequence(files.get(middle)) <= sequence) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid once closed
+        }
+    }
+
+    private static final class Segment {
+        final long baseSequence;
+        final MappedByteBuffer mapped;
+        final MappedByteBuffer index; // null if missing
+
+        Segment(Path file) throws IOException {
+            baseSequence = JournalSegment.baseSequence(file);
+            mapped = map(file);
+            Path indexFile = JournalSegment.indexFile(file);
+            index = Files.exists(indexFile) ? map(indexFile) : null;
+        }
+
+        boolean isEmpty() {
+            return mapped.capacity() < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE
+                    || mapped.getInt(SEGMENT_HEADER_SIZE) == 0;
+        }
+
+        /**
+         * @return cursor before the last indexed record numbered at or before {@code sequence}
+         */
+        Cursor seekSequence(long sequence) {
+            return cursorAt(lastEntry(0, sequence));
+        }
+
+        /**
+         * @return cursor before the last indexed record appended before {@code timestamp}
+         */
+        Cursor seekTimestamp(long timestamp) {
+            return cursorAt(lastEntry(INDEX_TIMESTAMP_OFFSET, timestamp - 1));
+        }
+
+        /**
+         * @return the last entry whose long at {@code keyOffset} is at most {@code key}, {@code -1} if there is none;
+         * entries are used from the start, so unused ones count as greater than any key
+         */
+        private int lastEntry(int keyOffset, long key) {
+            int low = 0;
+            int high = index == null ? -1 : index.capacity() / INDEX_ENTRY_SIZE - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int offset = middle * INDEX_ENTRY_SIZE;
+                if (index.getInt(offset + INDEX_POSITION_OFFSET) != 0 && index.getLong(offset + keyOffset) <= key) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        private Cursor cursorAt(int entry) {
+            if (entry < 0) {
+                return new Cursor(this, baseSequence, SEGMENT_HEADER_SIZE);
+            }
+            int offset = entry * INDEX_ENTRY_SIZE;
+            return new Cursor(this, index.getLong(offset), index.getInt(offset + INDEX_POSITION_OFFSET));
+        }
+    }
+
+    /**
+     * Scans the records of a segment one after another.
+     */
+    private static final class Cursor {
+        private final ByteBuffer mapped;
+        private final ByteBuffer view;
+        long sequence;
+        private int position;
+        private int nextPosition;
+
+        Cursor(Segment segment, long sequence, int position) {
+            mapped = segment.mapped;
+            view = segment.mapped.duplicate();
+            this.sequence = sequence - 1;
+            nextPosition = position;
+        }
+
+        /**
+         * @return whether there is a record to move to
+         */
+        boolean next() {
+            if (mapped.capacity() - nextPosition < RECORD_HEADER_SIZE) {
+                return false;
+            }
+            int header = mapped.getInt(nextPosition);
+            if (header == 0) {
+                return false;
+            }
+            position = nextPosition;
+            nextPosition += JournalSegment.recordSize(header - 1);
+            sequence++;
+            return true;
+        }
+
+        long timestamp() {
+            return mapped.getLong(position + TIMESTAMP_OFFSET);
+        }
+
+        ByteBuffer payload() {
+            int start = position + RECORD_HEADER_SIZE;
+            view.limit(start + mapped.getInt(position) - 1).position(start);
+            return view;
+        }
+    }
+}
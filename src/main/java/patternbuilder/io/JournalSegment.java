@@ -0,0 +1,318 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped file of a {@link JournalCommunication}, named after the sequence number of its first message.
+ * <p>
+ * The file is preallocated to its full size and starts with a header. A record consists of a 4-byte header
+ * ({@code length + 1}, so that a zeroed header marks the end of the written records), the CRC32 of the rest of the
+ * record, the 8-byte timestamp in milliseconds and the payload, padded to 8 bytes. The header is written last,
+ * once the rest of the record is in place.
+ * <p>
+ * A sparse index file next to the segment holds the sequence number, timestamp and position of a record every
+ * {@value #INDEX_INTERVAL} bytes, for {@link JournalReader} to seek with a binary search. An entry with position
+ * {@code 0} is unused. Not thread-safe.
+ */
+final class JournalSegment {
+    static final String SUFFIX = ".journal";
+    static final String INDEX_SUFFIX = ".index";
+    static final int MAGIC = 0x50424a31; // "PBJ1"
+    static final int MAGIC_OFFSET = 0;
+    static final int BASE_SEQUENCE_OFFSET = 8;
+    static final int SEGMENT_HEADER_SIZE = 64;
+    static final int RECORD_HEADER_SIZE = 16; // length, checksum and timestamp
+    static final int CHECKSUM_OFFSET = 4; // within a record
+    static final int TIMESTAMP_OFFSET = 8;
+    static final int RECORD_ALIGNMENT = 8;
+    static final int INDEX_INTERVAL = 4096; // bytes of records per index entry
+    static final int INDEX_ENTRY_SIZE = 24; // sequence, timestamp, position and padding
+    static final int INDEX_TIMESTAMP_OFFSET = 8; // within an entry
+    static final int INDEX_POSITION_OFFSET = 16;
+
+    private final Path file;
+    private final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer view;
+    private final CRC32 checksum = new CRC32();
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int writePosition;
+    private int recordCount;
+    private long lastTimestamp;
+    private int indexCount;
+    private int nextIndexedPosition; // the first record at or after it gets an index entry
+
+    private JournalSegment(Path file, long baseSequence, FileChannel channel, MappedByteBuffer mapped) {
+        this.file = file;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.mapped = mapped;
+        view = mapped.duplicate();
+        writePosition = SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Creates and preallocates the segment starting at {@code baseSequence}.
+     */
+    static JournalSegment create(Path directory, long baseSequence, int size) throws IOException {
+        Path file = directory.resolve(fileName(baseSequence));
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.putLong(BASE_SEQUENCE_OFFSET, baseSequence);
+            mapped.putInt(MAGIC_OFFSET, MAGIC);
+            JournalSegment segment = new JournalSegment(file, baseSequence, channel, mapped);
+            segment.openIndex();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its valid records. A torn or corrupt record and everything
+     * after it is cleared, to be overwritten by the next append.
+     */
+    static JournalSegment open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < SEGMENT_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a journal segment: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (mapped.getInt(MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("Not a journal segment: " + file);
+            }
+            JournalSegment segment = new JournalSegment(file, mapped.getLong(BASE_SEQUENCE_OFFSET), channel, mapped);
+            segment.recover();
+            segment.openIndex();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return segment files in {@code directory}, in sequence order
+     */
+    static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files); // zero-padded names sort by sequence
+        return files;
+    }
+
+    static String fileName(long baseSequence) {
+        return String.format("%020d%s", baseSequence, SUFFIX);
+    }
+
+    static Path indexFile(Path file) {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    static long baseSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @return size of the index file for a segment of {@code size} bytes, room for an entry per interval
+     */
+    static int indexSize(int size) {
+        return ((size - SEGMENT_HEADER_SIZE) / INDEX_INTERVAL + 1) * INDEX_ENTRY_SIZE;
+    }
+
+    static int recordSize(int length) {
+        return (RECORD_HEADER_SIZE + length + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return sequence number the next appended message gets
+     */
+    long getNextSequence() {
+        return baseSequence + recordCount;
+    }
+
+    int getSize() {
+        return mapped.capacity();
+    }
+
+    /**
+     * @return timestamp of the last record, {@code 0} if there is none
+     */
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    boolean hasRoom(int length) {
+        return mapped.capacity() - writePosition >= recordSize(length);
+    }
+
+    /**
+     * @return offset of the appended payload in the file
+     */
+    int append(long timestamp, byte[] bytes, int offset, int length) {
+        int position = writePosition;
+        view.limit(position + RECORD_HEADER_SIZE + length).position(position + RECORD_HEADER_SIZE);
+        view.put(bytes, offset, length);
+        return commit(position, timestamp, length);
+    }
+
+    /**
+     * Appends the remaining bytes of {@code payload} and advances its position to the limit.
+     *
+     * @return offset of the appended payload in the file
+     */
+    int append(long timestamp, ByteBuffer payload) {
+        int position = writePosition;
+        int length = payload.remaining();
+        view.limit(position + RECORD_HEADER_SIZE + length).position(position + RECORD_HEADER_SIZE);
+        view.put(payload);
+        return commit(position, timestamp, length);
+    }
+
+    /**
+     * @return {@code length} bytes at {@code offset} as the remaining bytes of a view reused by every call
+     */
+    ByteBuffer payload(int offset, int length) {
+        view.limit(offset + length).position(offset);
+        return view;
+    }
+
+    /**
+     * Writes the changes through to the storage device.
+     */
+    void force() {
+        mapped.force();
+        index.force();
+    }
+
+    void close() throws IOException {
+        if (channel.isOpen()) {
+            force();
+            indexChannel.close();
+            channel.close();
+        }
+    }
+
+    private int commit(int position, long timestamp, int length) {
+        mapped.putLong(position + TIMESTAMP_OFFSET, timestamp);
+        mapped.putInt(position + CHECKSUM_OFFSET, checksum(position, length));
+        mapped.putInt(position, length + 1);
+        if (position >= nextIndexedPosition) {
+            addIndexEntry(getNextSequence(), timestamp, position);
+        }
+        writePosition += recordSize(length);
+        recordCount++;
+        lastTimestamp = timestamp;
+        return position + RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * @return CRC32 of the timestamp and payload of the record at {@code position}
+     */
+    private int checksum(int position, int length) {
+        view.limit(position + RECORD_HEADER_SIZE + length).position(position + TIMESTAMP_OFFSET);
+        checksum.reset();
+        checksum.update(view);
+        return (int) checksum.getValue();
+    }
+
+    private void recover() {
+        int size = mapped.capacity();
+        int position = SEGMENT_HEADER_SIZE;
+        while (size - position >= RECORD_HEADER_SIZE) {
+            int header = mapped.getInt(position);
+            if (header == 0) {
+                break;
+            }
+            int length = header - 1;
+            if (length < 0 || length > size - position - RECORD_HEADER_SIZE
+                    || mapped.getInt(position + CHECKSUM_OFFSET) != checksum(position, length)) {
+                for (int offset = position; offset < size - 7; offset += RECORD_ALIGNMENT) {
+                    mapped.putLong(offset, 0L);
+                }
+                break;
+            }
+            lastTimestamp = mapped.getLong(position + TIMESTAMP_OFFSET);
+            position += recordSize(length);
+            recordCount++;
+        }
+        writePosition = position;
+    }
+
+    /**
+     * Opens or creates the index, dropping entries beyond the valid records. Entries lost with a missing index
+     * file are not restored, seeks into that part of the segment scan it instead.
+     */
+    private void openIndex() throws IOException {
+        Path indexFile = indexFile(file);
+        indexChannel = FileChannel.open(indexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(mapped.capacity()));
+        } catch (IOException | RuntimeException e) {
+            indexChannel.close();
+            throw e;
+        }
+        int entries = index.capacity() / INDEX_ENTRY_SIZE;
+        for (int i = 0; i < entries; i++) {
+            int offset = i * INDEX_ENTRY_SIZE;
+            int position = index.getInt(offset + INDEX_POSITION_OFFSET);
+            if (position == 0) {
+                continue;
+            }
+            if (position >= writePosition) {
+                index.putLong(offset, 0L).putLong(offset + INDEX_TIMESTAMP_OFFSET, 0L)
+                        .putInt(offset + INDEX_POSITION_OFFSET, 0);
+            } else {
+                indexCount = i + 1;
+                nextIndexedPosition = position + INDEX_INTERVAL;
+            }
+        }
+        if (indexCount == 0 && writePosition > SEGMENT_HEADER_SIZE) {
+            nextIndexedPosition = writePosition; // a lost index restarts with the next record
+        }
+    }
+
+    private void addIndexEntry(long sequence, long timestamp, int position) {
+        int offset = indexCount * INDEX_ENTRY_SIZE;
+        if (offset + INDEX_ENTRY_SIZE > index.capacity()) {
+            return;
+        }
+        index.putLong(offset, sequence).putLong(offset + INDEX_TIMESTAMP_OFFSET, timestamp);
+        index.putInt(offset + INDEX_POSITION_OFFSET, position); // written last, marks the entry as used
+        indexCount++;
+        nextIndexedPosition = position + INDEX_INTERVAL;
+    }
+}
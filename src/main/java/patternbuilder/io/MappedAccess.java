@@ -0,0 +1,89 @@
+package patternbuilder.io;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Release stores and acquire loads of ints and longs in a buffer shared with other threads or processes, such as a
+ * mapped file. A plain store before a release store is visible to whoever sees the release store through an acquire
+ * load, whatever the memory model of the CPU.
+ * <p>
+ * Uses {@code VarHandle}s on Java 11+, otherwise plain accesses fenced through {@code sun.misc.Unsafe}. Indexes
+ * must be aligned to the size of the value.
+ */
+abstract class MappedAccess {
+    static final MappedAccess INSTANCE = create();
+
+    abstract void putIntRelease(ByteBuffer buffer, int index, int value);
+
+    abstract int getIntAcquire(ByteBuffer buffer, int index);
+
+    abstract void putLongRelease(ByteBuffer buffer, int index, long value);
+
+    abstract long getLongAcquire(ByteBuffer buffer, int index);
+
+    private static MappedAccess create() {
+        try {
+            return (MappedAccess) Class.forName("patternbuilder.io.VarHandleMappedAccess")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new Fenced();
+        }
+    }
+
+    private static final class Fenced extends MappedAccess {
+        private static final MethodHandle STORE_FENCE;
+        private static final MethodHandle LOAD_FENCE;
+
+        static {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                MethodType type = MethodType.methodType(void.class);
+                STORE_FENCE = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+                LOAD_FENCE = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        @Override
+        void putIntRelease(ByteBuffer buffer, int index, int value) {
+            fence(STORE_FENCE);
+            buffer.putInt(index, value);
+        }
+
+        @Override
+        int getIntAcquire(ByteBuffer buffer, int index) {
+            int value = buffer.getInt(index);
+            fence(LOAD_FENCE);
+            return value;
+        }
+
+        @Override
+        void putLongRelease(ByteBuffer buffer, int index, long value) {
+            fence(STORE_FENCE);
+            buffer.putLong(index, value);
+        }
+
+        @Override
+        long getLongAcquire(ByteBuffer buffer, int index) {
+            long value = buffer.getLong(index);
+            fence(LOAD_FENCE);
+            return value;
+        }
+
+        private static void fence(MethodHandle fence) {
+            try {
+                fence.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
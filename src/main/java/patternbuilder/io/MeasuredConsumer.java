@@ -0,0 +1,65 @@
+package patternbuilder.io;
+
+import patternbuilder.core.Communication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Times every delivery to the wrapped consumer for the metrics, if any, and emits Flight Recorder delivery events
+ * while they are enabled. Keeps the variant of {@code handleDelivery} the communication chose so that slices are
+ * still not copied.
+ */
+final class MeasuredConsumer implements Communication.Consumer {
+    private final Communication.Consumer consumer;
+    private final CommunicationMetrics metrics;
+    private final String name;
+
+    MeasuredConsumer(Communication.Consumer consumer, CommunicationMetrics metrics, String name) {
+        this.consumer = consumer;
+        this.metrics = metrics;
+        this.name = name;
+    }
+
+    @Override
+    public void handleDelivery(byte[] bytes) {
+        Object event = Tracing.INSTANCE.deliveryStarted();
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            consumer.handleDelivery(bytes);
+        } finally {
+            completed(event, start, bytes.length);
+        }
+    }
+
+    @Override
+    public void handleDelivery(byte[] bytes, int offset, int length) {
+        Object event = Tracing.INSTANCE.deliveryStarted();
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            consumer.handleDelivery(bytes, offset, length);
+        } finally {
+            completed(event, start, length);
+        }
+    }
+
+    @Override
+    public void handleDelivery(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        Object event = Tracing.INSTANCE.deliveryStarted();
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            consumer.handleDelivery(buffer);
+        } finally {
+            completed(event, start, length);
+        }
+    }
+
+    private void completed(Object event, long start, int length) {
+        if (metrics != null) {
+            metrics.recordDelivery(length, System.nanoTime() - start);
+        }
+        if (event != null) {
+            Tracing.INSTANCE.deliveryCompleted(event, name, length);
+        }
+    }
+}
@@ -1,19 +1,40 @@
 package patternbuilder.io;
 
 import patternbuilder.core.Communication;
+import patternbuilder.core.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 /**
  * Contains boilerplate initialization code for {@code name} and {@code consumer}
+ * <p>
+ * Also bounds the number of {@link #sendAsync(byte[])} calls in flight: once {@code maxInFlight} futures are
+ * pending, the next call flushes whatever the communication holds back, then waits for one of them to complete.
  *
  * @author Roman Katerinenko
  */
 public abstract class MinimalCommunication implements Communication {
     private final String name;
     private final Consumer consumer;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final BufferPool bufferPool;
+    private final Compression compression;
+    private final CommunicationMetrics metrics;
+    private final Dispatch dispatch;
 
     protected MinimalCommunication(Builder builder) {   // protected
         name = builder.name;
         consumer = builder.consumer;
+        maxInFlight = builder.maxInFlight;
+        inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        bufferPool = builder.bufferPool;
+        compression = builder.compression;
+        metrics = builder.metrics ? new CommunicationMetrics(this::queueDepth) : null;
+        dispatch = builder.dispatch;
     }
 
     @Override
@@ -26,12 +47,153 @@ public abstract class MinimalCommunication implements Communication {
         return consumer;
     }
 
-    public static abstract class Builder {
+    /**
+     * @return maximum number of pending {@link #sendAsync(byte[])} futures, {@code 0} if unbounded
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return pool the communication leases its buffers from, also available to producers and consumers; may be
+     * {@code null}
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return compression applied to every message by transports that support it, may be {@code null}
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    @Override
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return what {@link Metrics#getQueueDepth()} reports, {@code 0} unless overridden
+     */
+    protected long queueDepth() {
+        return 0;
+    }
+
+    /**
+     * @return start time to pass to {@link #sendCompleted(long, int, long)}, {@code 0} without metrics and with
+     * Flight Recorder send events disabled
+     */
+    protected final long sendStarted() {
+        return metrics == null && !Tracing.INSTANCE.isSendEnabled() ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the send in the metrics and emits a {@code patternbuilder.Send} Flight Recorder event.
+     */
+    protected final void sendCompleted(long start, int messages, long bytes) {
+        if (start == 0) {
+            return;
+        }
+        if (metrics != null) {
+            metrics.recordSend(messages, bytes, System.nanoTime() - start);
+        }
+        Tracing.INSTANCE.sendCompleted(name, messages, bytes, start);
+    }
+
+    /**
+     * @return {@code consumer} timed for the metrics, traced with {@code patternbuilder.Delivery} Flight Recorder
+     * events and run as {@code dispatch} says; {@code consumer} itself if it is decorated already
+     */
+    protected final Consumer decorated(Consumer consumer) {
+        if (consumer == null || consumer instanceof MeasuredConsumer || consumer instanceof DispatchingConsumer) {
+            return consumer;
+        }
+        Consumer measured = new MeasuredConsumer(consumer, metrics, name);
+        return dispatch == Dispatch.DIRECT ? measured : new DispatchingConsumer(measured, dispatch);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(byte[] bytes) {
+        return withPermit(() -> doSendAsync(bytes));
+    }
+
+    /**
+     * Starts {@code send} once the {@code maxInFlight} window has room, holding a place in it until the returned
+     * future completes. For asynchronous sends other than {@link #sendAsync(byte[])}.
+     */
+    protected final CompletableFuture<Void> withPermit(Callable<CompletableFuture<Void>> send) {
+        if (inFlight != null && !inFlight.tryAcquire()) {
+            try {
+                flushPending(); // pending futures may wait for exactly that
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failedFuture(e);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+        }
+        CompletableFuture<Void> result;
+        try {
+            result = send.call();
+        } catch (Exception e) {
+            result = failedFuture(e);
+        }
+        if (inFlight != null) {
+            result.whenComplete((ignored, error) -> inFlight.release());
+        }
+        return result;
+    }
+
+    /**
+     * Writes out messages sent but held back, such as frames buffered with {@code autoFlush} disabled. Called
+     * before {@link #sendAsync(byte[])} waits for a pending future. Does nothing unless overridden.
+     */
+    protected void flushPending() throws IOException {
+    }
+
+    /**
+     * Starts sending {@code bytes}. Sends synchronously unless overridden.
+     */
+    protected CompletableFuture<Void> doSendAsync(byte[] bytes) throws Exception {
+        send(bytes);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    static CompletableFuture<Void> failedFuture(Throwable error) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    public static abstract class Builder implements Cloneable {
         private Communication.Consumer consumer;
         private String name;
+        private int maxInFlight;
+        private BufferPool bufferPool;
+        private Compression compression;
+        private boolean metrics;
+        private Dispatch dispatch = Dispatch.DIRECT;
 
         public abstract MinimalCommunication build();
 
+        /**
+         * @return builder with the same settings, sharing objects such as the consumer with this one
+         */
+        Builder copy() {
+            try {
+                return (Builder) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
         public Builder consumer(Communication.Consumer consumer) {
             this.consumer = consumer;
             return this;
@@ -42,5 +204,47 @@ public abstract class MinimalCommunication implements Communication {
             return this;
         }
 
+        /**
+         * Caps pending {@code sendAsync} futures, so producers get backpressure instead of unbounded queuing.
+         * {@code 0} (the default) means no limit.
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Pool to lease internal buffers from, typically shared by many communications.
+         */
+        public Builder bufferPool(BufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * Compresses messages on the wire; the peer needs the same settings. Only applied by
+         * {@link NetworkCommunication} and its subclasses.
+         */
+        public Builder compression(Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Records {@link Communication#metrics()}, at the cost of reading the clock twice per message.
+         */
+        public Builder metrics(boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Where deliveries to the consumer run, {@link Dispatch#DIRECT} by default.
+         */
+        public Builder dispatch(Dispatch dispatch) {
+            this.dispatch = dispatch == null ? Dispatch.DIRECT : dispatch;
+            return this;
+        }
+
     }
 }
\ No newline at end of file
@@ -1,28 +1,141 @@
 package patternbuilder.io;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
 
 /**
+ * Sends length-prefixed frames over a non-blocking {@link SocketChannel}.
+ * <p>
+ * Every frame is a 4-byte big-endian payload length followed by the payload. Frames are encoded into a
+ * direct {@link ByteBuffer} owned by the connection (leased from the {@link BufferPool} if one is configured),
+ * so sending does not allocate. With {@code autoFlush}
+ * disabled frames are only written when the buffer fills up or {@link #flush()} is called, which lets
+ * a caller pack many small messages into a single write. {@link #sendBatch(ByteBuffer...)} goes further and hands
+ * up to {@value #MAX_GATHERED_FRAMES} buffers to a single gathering write without copying them.
+ * <p>
+ * When built with an {@link EventLoopGroup} the channel is served by one of the group's selector threads:
+ * a send never waits for the socket, whatever cannot be written right away is drained by the loop once
+ * the socket becomes writable. Senders only wait when the send buffer itself is full, except on the loop thread,
+ * say a consumer replying: the loop never waits for a socket, what does not fit is queued behind the send buffer
+ * on the heap instead.
+ * <p>
+ * With {@code smartBatching} senders do not write at all: they append to the send buffer and leave it to the
+ * loop, which writes everything appended so far in one go. An idle connection is flushed right away, while
+ * under load frames pile up between two writes, so the number of writes adapts to the rate of sends.
+ * <p>
+ * With a {@code consumer} the channel is also read: frames sent by the peer are decoded from a reusable read
+ * buffer and delivered as slices of it through {@link Consumer#handleDelivery(ByteBuffer)}, however they were
+ * split across reads. The event loop reads as soon as data arrives; without one, call {@link #receive()}. A frame
+ * longer than {@code maxFrameSize} closes the connection rather than growing the read buffer without bounds, and
+ * so does a consumer throwing or a failing read or write; {@link #receive()} rethrows the failure as an
+ * {@link IOException}.
+ * <p>
+ * {@link #close()} writes what is still buffered for at most {@code lingerMillis}, then drops the rest and fails
+ * the futures waiting for it, like {@code SO_LINGER}; senders waiting for the socket by then give up as well.
+ *
  * @author Roman Katerinenko
  */
 public class NetworkCommunication extends MinimalCommunication {
+    public static final int DEFAULT_SEND_BUFFER_SIZE = 64 * 1024; // bytes
+    public static final int DEFAULT_RECEIVE_BUFFER_SIZE = 64 * 1024; // bytes
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024; // bytes of payload
+    public static final long DEFAULT_LINGER_MILLIS = 5_000;
+    static final int HEADER_SIZE = 4; // bytes
+    static final int MAX_GATHERED_FRAMES = 256; // per gathering write, keeps the iovec count well below IOV_MAX
+    private static final long WRITE_WAIT_MILLIS = 100;
+
     private final String host;
     private final int port;
+    private final String remoteHost;
+    private final int remotePort;
+    private final boolean autoFlush;
+    private final boolean smartBatching;
+    private final int maxFrameSize;
+    private final long lingerMillis;
+    private volatile boolean closing;
+    private volatile long lingerDeadline; // System.nanoTime() by which waiting for the socket stops once closing
+    private final SocketChannel channel;
     private final Socket inputSocket;
+    private final int sendBufferSize;
+    private final PooledBuffer pooledWriteBuffer;
+    private final Object writeLock = new Object();
+    private ByteBuffer writeBuffer; // empty once closed, so nothing reaches a buffer returned to the pool
+    private boolean closed; // guarded by writeLock
+    private ByteBuffer overflow; // written after the send buffer when the socket backs up, guarded by writeLock
+    private ByteBuffer[] gatheringBuffers = new ByteBuffer[2]; // the write buffer followed by header/payload pairs
+    private ByteBuffer[] headers; // allocated by the first batch
+    private final Object sendLock = new Object(); // held by a sender across waits, never taken by the loop thread
+    private final EventLoop eventLoop;
+    private SelectionKey selectionKey; // set on the loop once registered, only accessed there
+    private final Runnable enableWriteTask = this::enableWrite;
+    private final Runnable flushTask = this::flushOnLoop;
+    private boolean writeRequested; // guarded by writeLock
+    private boolean flushScheduled; // guarded by writeLock
+    private long writtenBytes; // total bytes written to the channel, guarded by writeLock
+    private final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>(); // guarded by writeLock
+    private volatile boolean writesPending;
+    private Selector writeSelector; // opened lazily, used only without an event loop
+    private final Object readLock = new Object();
+    private PooledBuffer pooledReadBuffer; // guarded by readLock
+    private ByteBuffer readBuffer; // in fill mode between reads, guarded by readLock
+    private boolean endOfStream; // guarded by readLock
+    private final java.util.function.Consumer<NetworkCommunication> endOfStreamHandler;
+    private final Consumer deliveryConsumer;
 
     protected NetworkCommunication(Builder builder) {
         super(builder);
         host = builder.host;
         port = builder.port;
+        remoteHost = builder.remoteHost;
+        remotePort = builder.remotePort;
+        autoFlush = builder.autoFlush;
+        smartBatching = builder.smartBatching;
+        maxFrameSize = builder.maxFrameSize;
+        lingerMillis = builder.lingerMillis;
+        channel = builder.channel;
         inputSocket = builder.inputSocket;
+        pooledWriteBuffer = getBufferPool() == null ? null : getBufferPool().lease(builder.sendBufferSize);
+        writeBuffer = pooledWriteBuffer == null
+                ? ByteBuffer.allocateDirect(builder.sendBufferSize)
+                : pooledWriteBuffer.buffer();
+        writeBuffer.clear();
+        sendBufferSize = writeBuffer.capacity();
+        eventLoop = builder.eventLoop;
+        endOfStreamHandler = builder.endOfStreamHandler;
+        deliveryConsumer = decorated(getConsumer());
+        if (getConsumer() != null) {
+            pooledReadBuffer = getBufferPool() == null ? null : getBufferPool().lease(builder.receiveBufferSize);
+            readBuffer = pooledReadBuffer == null
+                    ? ByteBuffer.allocateDirect(builder.receiveBufferSize)
+                    : pooledReadBuffer.buffer();
+            readBuffer.clear();
+        }
+        if (eventLoop != null) {
+            eventLoop.register(channel, getConsumer() == null ? 0 : SelectionKey.OP_READ,
+                    this::handle, key -> selectionKey = key);
+        }
     }
 
     public Socket getInputSocket() {
         return inputSocket;
     }
 
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
     public String getHost() {
         return host;
     }
@@ -31,20 +144,800 @@ public class NetworkCommunication extends MinimalCommunication {
         return port;
     }
 
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @return capacity of the read buffer, which grows to hold the largest frame received; {@code 0} without
+     * a consumer
+     */
+    public int getReceiveBufferSize() {
+        synchronized (readLock) {
+            return readBuffer == null ? 0 : readBuffer.capacity();
+        }
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public boolean isAutoFlush() {
+        return autoFlush;
+    }
+
+    /**
+     * Bytes buffered but not written to the socket yet.
+     */
+    @Override
+    protected long queueDepth() {
+        synchronized (writeLock) {
+            return buffered();
+        }
+    }
+
+    public boolean isSmartBatching() {
+        return smartBatching;
+    }
+
+    public boolean isEventLoopDriven() {
+        return eventLoop != null;
+    }
+
     @Override
     public void send(byte[] bytes) throws Exception {
-        // do nothing
+        send(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        long start = sendStarted();
+        synchronized (sendLock()) {
+            synchronized (writeLock) {
+                writeFrame(bytes, offset, length);
+            }
+        }
+        completeWrites();
+        sendCompleted(start, 1, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        long start = sendStarted();
+        int length = buffer.remaining();
+        synchronized (sendLock()) {
+            synchronized (writeLock) {
+                writeFrame(buffer);
+            }
+        }
+        completeWrites();
+        sendCompleted(start, 1, length);
+    }
+
+    /**
+     * The future completes once the whole frame has been written to the channel, which with {@code autoFlush}
+     * disabled means after the next {@link #flush()}.
+     */
+    @Override
+    protected CompletableFuture<Void> doSendAsync(byte[] bytes) throws Exception {
+        long start = sendStarted();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        synchronized (sendLock()) {
+            synchronized (writeLock) {
+                writeFrame(bytes, 0, bytes.length);
+                if (buffered() == 0) {
+                    result.complete(null);
+                } else {
+                    pendingWrites.add(new PendingWrite(writtenBytes + buffered(), result));
+                    writesPending = true;
+                }
+            }
+        }
+        completeWrites();
+        sendCompleted(start, 1, bytes.length);
+        return result;
+    }
+
+    /**
+     * Copies all frames into the send buffer and writes them at once, so a batch of small messages costs a single
+     * write per {@code sendBufferSize} bytes.
+     */
+    @Override
+    public void sendBatch(byte[]... messages) throws Exception {
+        long start = sendStarted();
+        long bytes = 0;
+        synchronized (sendLock()) {
+            synchronized (writeLock) {
+                ensureOpen();
+                for (byte[] message : messages) {
+                    appendFrame(message, 0, message.length);
+                    bytes += message.length;
+                }
+                frameWritten();
+            }
+        }
+        completeWrites();
+        sendCompleted(start, messages.length, bytes);
+    }
+
+    /**
+     * Writes the buffers as they are, together with the frames already buffered, through gathering writes.
+     * Nothing is copied, which pays off for direct buffers. With compression the messages are compressed into
+     * the send buffer instead.
+     */
+    @Override
+    public void sendBatch(ByteBuffer... messages) throws Exception {
+        long start = sendStarted();
+        long bytes = 0;
+        for (ByteBuffer message : messages) {
+            bytes += message.remaining();
+        }
+        synchronized (sendLock()) {
+            synchronized (writeLock) {
+                ensureOpen();
+                if (getCompression() != null) {
+                    try (Compression.Codec codec = getCompression().codec()) {
+                        for (ByteBuffer message : messages) {
+                            appendFrame(codec.compress(message));
+                        }
+                    }
+                    frameWritten();
+                } else {
+                    writeFrames(messages);
+                }
+            }
+        }
+        completeWrites();
+        sendCompleted(start, messages.length, bytes);
+    }
+
+    /**
+     * Writes all buffered frames to the channel, waiting for the socket to become writable if needed.
+     */
+    public void flush() throws IOException {
+        synchronized (sendLock()) {
+            synchronized (writeLock) {
+                ensureOpen();
+                flushBuffer();
+            }
+        }
+        completeWrites();
+    }
+
+    @Override
+    protected void flushPending() throws IOException {
+        flush();
+    }
+
+    /**
+     * Reads whatever the socket holds without blocking and delivers every complete frame to the consumer.
+     * Only needed without an event loop.
+     *
+     * @return number of frames delivered, {@code -1} once the peer has closed the connection
+     */
+    public int receive() throws IOException {
+        if (getConsumer() == null) {
+            throw new IllegalStateException("No consumer");
+        }
+        synchronized (readLock) {
+            return read();
+        }
     }
 
     @Override
     public void close() throws Exception {
-        inputSocket.close();
+        if (!channel.isOpen()) {
+            return;
+        }
+        lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        closing = true;
+        try {
+            synchronized (sendLock()) {
+                synchronized (writeLock) {
+                    if (channel.isConnected() && buffered() > 0) {
+                        flushBuffer();
+                    }
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // lingered long enough, what is left is dropped
+        } finally {
+            if (writeSelector != null) {
+                writeSelector.close();
+            }
+            channel.close();
+            completeWrites();
+            failPendingWrites();
+            synchronized (writeLock) {
+                if (!closed) {
+                    closed = true;
+                    if (pooledWriteBuffer != null) {
+                        pooledWriteBuffer.release();
+                    }
+                    writeBuffer = ByteBuffer.allocate(0);
+                    overflow = null;
+                }
+            }
+            synchronized (readLock) {
+                if (pooledReadBuffer != null) {
+                    pooledReadBuffer.release();
+                    pooledReadBuffer = null;
+                }
+                readBuffer = null;
+            }
+        }
+    }
+
+    private void writeFrame(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if (appendFrame(bytes, offset, length)) {
+            frameWritten();
+        }
+    }
+
+    private void writeFrame(ByteBuffer payload) throws IOException {
+        ensureOpen();
+        boolean buffered;
+        if (getCompression() != null) {
+            try (Compression.Codec codec = getCompression().codec()) {
+                buffered = appendFrame(codec.compress(payload));
+            }
+        } else {
+            buffered = appendFrame(payload);
+        }
+        if (buffered) {
+            frameWritten();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Appends the frame to the send buffer, or writes it right away if it does not fit.
+     *
+     * @return {@code true} if the frame has been buffered
+     */
+    private boolean appendFrame(byte[] bytes, int offset, int length) throws IOException {
+        if (getCompression() != null) {
+            try (Compression.Codec codec = getCompression().codec()) {
+                return appendFrame(codec.compress(bytes, offset, length));
+            }
+        }
+        return appendFrame(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Same as {@link #appendFrame(byte[], int, int)} for a payload that is already compressed, if need be.
+     */
+    private boolean appendFrame(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (!reserve(length)) {
+            if (inEventLoop()) {
+                spill(length, payload);
+                return true;
+            }
+            writeBuffer.putInt(length);
+            writeGathering(payload);
+            return false;
+        }
+        writeBuffer.putInt(length).put(payload);
+        return true;
+    }
+
+    /**
+     * Makes room for a frame carrying {@code length} bytes.
+     *
+     * @return {@code false} if the frame does not fit even into an empty buffer, or on the loop thread if the
+     * socket does not take enough right away
+     */
+    private boolean reserve(int length) throws IOException {
+        if (overflow != null || writeBuffer.remaining() < HEADER_SIZE + length) {
+            flushBuffer();
+        }
+        return overflow == null && writeBuffer.remaining() >= HEADER_SIZE + length;
+    }
+
+    private void frameWritten() throws IOException {
+        if (!autoFlush) {
+            return;
+        }
+        if (eventLoop == null) {
+            flushBuffer();
+        } else if (smartBatching) {
+            scheduleFlush();
+        } else if (!writeRequested && !drain()) {
+            requestWrite();
+        }
+    }
+
+    /**
+     * Lets the loop write the buffer unless a write is already due: frames appended in the meantime go with it.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled && !writeRequested) {
+            flushScheduled = true;
+            eventLoop.execute(flushTask);
+        }
+    }
+
+    private void flushOnLoop() {
+        boolean failed = false;
+        synchronized (writeLock) {
+            flushScheduled = false;
+            if (closed || !channel.isOpen()) {
+                return;
+            }
+            try {
+                if (!drain() && !writeRequested) {
+                    writeRequested = true;
+                    enableWrite();
+                }
+            } catch (IOException e) {
+                failed = true;
+            }
+            writeLock.notifyAll();
+        }
+        if (failed) {
+            abort();
+            return;
+        }
+        completeWrites();
+    }
+
+    /**
+     * Writes all buffered bytes, on the loop thread only what the socket takes right away, leaving the rest to
+     * the loop once the socket becomes writable.
+     */
+    private void flushBuffer() throws IOException {
+        while (!drain()) {
+            if (inEventLoop()) {
+                requestWrite();
+                return;
+            }
+            awaitWritable();
+        }
+    }
+
+    /**
+     * Writes as much of the buffer and the overflow behind it as the socket accepts without blocking.
+     *
+     * @return {@code true} if both have been fully written
+     */
+    private boolean drain() throws IOException {
+        while (true) {
+            writeBuffer.flip();
+            try {
+                while (writeBuffer.hasRemaining()) {
+                    int written = channel.write(writeBuffer);
+                    if (written == 0) {
+                        return false;
+                    }
+                    writtenBytes += written;
+                }
+            } finally {
+                writeBuffer.compact();
+            }
+            if (overflow == null) {
+                return true;
+            }
+            overflow.flip();
+            ByteBuffer chunk = overflow.duplicate();
+            chunk.limit(chunk.position() + Math.min(chunk.remaining(), writeBuffer.remaining()));
+            writeBuffer.put(chunk);
+            overflow.position(chunk.position());
+            overflow.compact();
+            if (overflow.position() == 0) {
+                overflow = null;
+            }
+        }
+    }
+
+    /**
+     * @return bytes in the buffer and the overflow
+     */
+    private int buffered() {
+        return writeBuffer.position() + (overflow == null ? 0 : overflow.position());
+    }
+
+    /**
+     * @return lock serializing senders; the loop thread only takes the write lock, since a sender may hold the send
+     * lock while waiting for the loop, always between two frames
+     */
+    private Object sendLock() {
+        return inEventLoop() ? writeLock : sendLock;
+    }
+
+    /**
+     * @return whether the caller runs on the event loop serving this connection, which must never wait for it
+     */
+    protected boolean inEventLoop() {
+        return eventLoop != null && eventLoop.inEventLoop();
+    }
+
+    /**
+     * Queues a frame behind everything buffered, for the loop thread which cannot wait for room in the buffer.
+     */
+    private void spill(int length, ByteBuffer payload) {
+        ensureOverflow(HEADER_SIZE + payload.remaining());
+        overflow.putInt(length).put(payload);
+    }
+
+    private void ensureOverflow(int length) {
+        int buffered = overflow == null ? 0 : overflow.position();
+        if (overflow != null && overflow.remaining() >= length) {
+            return;
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max((long) buffered + length, 2L * buffered));
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        if (overflow != null) {
+            overflow.flip();
+            grown.put(overflow);
+        }
+        overflow = grown;
+    }
+
+    /**
+     * Writes the messages behind the buffered frames, {@value #MAX_GATHERED_FRAMES} per gathering write.
+     */
+    private void writeFrames(ByteBuffer[] messages) throws IOException {
+        prepareGathering();
+        for (int first = 0; first < messages.length; first += MAX_GATHERED_FRAMES) {
+            int count = Math.min(MAX_GATHERED_FRAMES, messages.length - first);
+            for (int i = 0; i < count; i++) {
+                ByteBuffer header = headers[i];
+                header.clear();
+                header.putInt(messages[first + i].remaining()).flip();
+                gatheringBuffers[1 + 2 * i] = header;
+                gatheringBuffers[2 + 2 * i] = messages[first + i];
+            }
+            writeGathering(1 + 2 * count);
+        }
+    }
+
+    private void writeGathering(ByteBuffer payload) throws IOException {
+        gatheringBuffers[1] = payload;
+        writeGathering(2);
+    }
+
+    /**
+     * Writes the send buffer followed by the first {@code count - 1} entries of {@link #gatheringBuffers}.
+     */
+    private void writeGathering(int count) throws IOException {
+        gatheringBuffers[0] = writeBuffer;
+        try {
+            while (hasRemaining(count)) {
+                if (overflow != null) { // nothing may overtake it
+                    spillGathering(count);
+                    flushBuffer();
+                    return;
+                }
+                long written;
+                writeBuffer.flip();
+                try {
+                    written = channel.write(gatheringBuffers, 0, count);
+                } finally {
+                    writeBuffer.compact(); // keep the buffer consistent for the event loop while we wait
+                }
+                writtenBytes += written;
+                if (written == 0 && hasRemaining(count)) {
+                    if (eventLoop != null) { // the loop may send while we wait, so do not wait in the middle of a frame
+                        spillGathering(count);
+                        flushBuffer();
+                        return;
+                    }
+                    awaitWritable();
+                }
+            }
+        } finally {
+            for (int i = 1; i < count; i++) {
+                gatheringBuffers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Moves what is left of the first {@code count - 1} entries of {@link #gatheringBuffers} to the overflow.
+     */
+    private void spillGathering(int count) {
+        int length = 0;
+        for (int i = 1; i < count; i++) {
+            length += gatheringBuffers[i].remaining();
+        }
+        ensureOverflow(length);
+        for (int i = 1; i < count; i++) {
+            overflow.put(gatheringBuffers[i]);
+        }
+    }
+
+    private boolean hasRemaining(int count) {
+        if (writeBuffer.position() > 0) {
+            return true;
+        }
+        for (int i = 1; i < count; i++) {
+            if (gatheringBuffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void prepareGathering() {
+        if (headers == null) {
+            ByteBuffer headerBuffer = ByteBuffer.allocateDirect(HEADER_SIZE * MAX_GATHERED_FRAMES);
+            headers = new ByteBuffer[MAX_GATHERED_FRAMES];
+            for (int i = 0; i < MAX_GATHERED_FRAMES; i++) {
+                headerBuffer.limit(HEADER_SIZE * (i + 1)).position(HEADER_SIZE * i);
+                headers[i] = headerBuffer.slice();
+            }
+            gatheringBuffers = new ByteBuffer[1 + 2 * MAX_GATHERED_FRAMES];
+        }
+    }
+
+    /**
+     * Waits a while for the socket to take more.
+     *
+     * @throws ClosedChannelException once the connection is closing and {@code lingerMillis} have passed
+     */
+    private void awaitWritable() throws IOException {
+        long waitMillis = WRITE_WAIT_MILLIS;
+        if (closing) {
+            long remaining = lingerDeadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new ClosedChannelException();
+            }
+            waitMillis = Math.min(waitMillis, TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+        }
+        if (eventLoop != null) {
+            requestWrite();
+            try {
+                writeLock.wait(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            return;
+        }
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+        writeSelector.select(waitMillis);
+        writeSelector.selectedKeys().clear();
+    }
+
+    private void requestWrite() {
+        if (!writeRequested) {
+            writeRequested = true;
+            eventLoop.execute(enableWriteTask);
+        }
+    }
+
+    private void enableWrite() {
+        if (selectionKey != null && selectionKey.isValid()) { // null if closed before it got registered
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Serves the channel on the loop. A failing read or write drops the connection before the loop sees it.
+     */
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid() || !channel.isOpen()) {
+            return; // closed since it was selected
+        }
+        try {
+            if (key.isReadable()) {
+                synchronized (readLock) {
+                    if (read() < 0) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                        if (endOfStreamHandler != null) {
+                            endOfStreamHandler.accept(this);
+                        }
+                    }
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                synchronized (writeLock) {
+                    if (drain()) {
+                        writeRequested = false;
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    }
+                    writeLock.notifyAll();
+                }
+                completeWrites();
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                abort();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads until the socket has nothing more to give, delivering frames as they complete.
+     *
+     * @return number of frames delivered, {@code -1} at the end of the stream
+     */
+    private int read() throws IOException {
+        if (readBuffer == null || endOfStream) {
+            return -1; // closed
+        }
+        int delivered = 0;
+        while (true) {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                endOfStream = true;
+                return delivered > 0 ? delivered : -1;
+            }
+            if (read == 0) {
+                return delivered;
+            }
+            delivered += deliverFrames();
+        }
+    }
+
+    /**
+     * Delivers the complete frames in the read buffer and keeps a trailing partial frame for the next read,
+     * growing the buffer if the frame cannot fit otherwise.
+     */
+    private int deliverFrames() throws IOException {
+        ByteBuffer buffer = readBuffer;
+        buffer.flip();
+        int delivered = 0;
+        int end = buffer.limit();
+        while (end - buffer.position() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 0 || length > maxFrameSize) {
+                abort();
+                throw new IOException("Invalid frame length " + length + ", maxFrameSize is " + maxFrameSize);
+            }
+            if (end - start - HEADER_SIZE < length) {
+                break;
+            }
+            int next = start + HEADER_SIZE + length;
+            buffer.limit(next).position(start + HEADER_SIZE);
+            if (getCompression() == null) {
+                deliver(buffer);
+            } else {
+                try (Compression.Codec codec = getCompression().codec()) {
+                    deliver(codec.decompress(buffer));
+                } catch (DataFormatException e) {
+                    abort();
+                    throw new IOException("Corrupt compressed frame", e);
+                }
+            }
+            buffer.limit(end).position(next);
+            delivered++;
+        }
+        if (buffer.remaining() >= HEADER_SIZE && HEADER_SIZE + buffer.getInt(buffer.position()) > buffer.capacity()) {
+            growReadBuffer(HEADER_SIZE + buffer.getInt(buffer.position()));
+        } else {
+            buffer.compact();
+        }
+        return delivered;
+    }
+
+    private void deliver(ByteBuffer message) throws IOException {
+        try {
+            deliveryConsumer.handleDelivery(message);
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Consumer failed", e);
+        }
+    }
+
+    /**
+     * Drops the connection after a frame that cannot be read or a failure of the channel: nothing the peer sends
+     * after it can be trusted.
+     */
+    private void abort() {
+        synchronized (readLock) {
+            endOfStream = true;
+        }
+        if (endOfStreamHandler != null) {
+            endOfStreamHandler.accept(this);
+            return;
+        }
+        try {
+            close();
+        } catch (Exception ignored) { // the connection is broken anyway
+        }
+    }
+
+    private void growReadBuffer(int required) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L * readBuffer.capacity()));
+        PooledBuffer pooled = getBufferPool() == null ? null : getBufferPool().lease(capacity);
+        ByteBuffer grown = pooled == null ? ByteBuffer.allocateDirect(capacity) : pooled.buffer();
+        grown.clear();
+        grown.put(readBuffer);
+        if (pooledReadBuffer != null) {
+            pooledReadBuffer.release();
+        }
+        pooledReadBuffer = pooled;
+        readBuffer = grown;
+    }
+
+    /**
+     * Completes futures of frames that have been fully written. Futures are completed outside of the locks,
+     * so their callbacks may send again.
+     */
+    private void completeWrites() {
+        while (writesPending) {
+            PendingWrite completed;
+            synchronized (writeLock) {
+                PendingWrite head = pendingWrites.peek();
+                if (head == null || head.endOffset > writtenBytes) {
+                    writesPending = head != null;
+                    return;
+                }
+                completed = pendingWrites.poll();
+                writesPending = !pendingWrites.isEmpty();
+            }
+            completed.future.complete(null);
+        }
+    }
+
+    private void failPendingWrites() {
+        while (writesPending) {
+            PendingWrite failed;
+            synchronized (writeLock) {
+                failed = pendingWrites.poll();
+                writesPending = !pendingWrites.isEmpty();
+            }
+            if (failed != null) {
+                failed.future.completeExceptionally(new ClosedChannelException());
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        final long endOffset;
+        final CompletableFuture<Void> future;
+
+        PendingWrite(long endOffset, CompletableFuture<Void> future) {
+            this.endOffset = endOffset;
+            this.future = future;
+        }
     }
 
     public static class Builder extends MinimalCommunication.Builder {
         private String host;
         private int port;
+        private String remoteHost;
+        private int remotePort;
+        private int sendBufferSize = DEFAULT_SEND_BUFFER_SIZE;
+        private int receiveBufferSize = DEFAULT_RECEIVE_BUFFER_SIZE;
+        private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+        private long lingerMillis = DEFAULT_LINGER_MILLIS;
+        private boolean autoFlush = true;
+        private boolean smartBatching;
+        private EventLoopGroup eventLoopGroup;
+        private SocketChannel acceptedChannel;
+        private java.util.function.Consumer<NetworkCommunication> endOfStreamHandler;
+        private SocketChannel channel;
         private Socket inputSocket;
+        private EventLoop eventLoop;
 
         public Builder host(String host) {
             this.host = host;
@@ -56,17 +949,154 @@ public class NetworkCommunication extends MinimalCommunication {
             return this;
         }
 
+        /**
+         * Peer to connect to. If not set, the channel is only bound to {@code host}:{@code port}.
+         */
+        public Builder remoteHost(String remoteHost) {
+            this.remoteHost = remoteHost;
+            return this;
+        }
+
+        public Builder remotePort(int remotePort) {
+            this.remotePort = remotePort;
+            return this;
+        }
+
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        /**
+         * Initial size of the buffer frames are read into, only used with a {@code consumer}.
+         */
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        /**
+         * Longest payload accepted from the peer, {@value #DEFAULT_MAX_FRAME_SIZE} bytes by default. A longer frame
+         * closes the connection.
+         */
+        public Builder maxFrameSize(int maxFrameSize) {
+            this.maxFrameSize = maxFrameSize;
+            return this;
+        }
+
+        /**
+         * Longest time {@link #close()} waits for buffered frames to be written, {@value #DEFAULT_LINGER_MILLIS}
+         * milliseconds by default; {@code 0} drops whatever the socket does not take right away.
+         */
+        public Builder lingerMillis(long lingerMillis) {
+            this.lingerMillis = lingerMillis;
+            return this;
+        }
+
+        public Builder autoFlush(boolean autoFlush) {
+            this.autoFlush = autoFlush;
+            return this;
+        }
+
+        /**
+         * Leaves all writes to the event loop, which batches whatever has been sent since its last write.
+         * Requires an {@code eventLoopGroup}.
+         */
+        public Builder smartBatching(boolean smartBatching) {
+            this.smartBatching = smartBatching;
+            return this;
+        }
+
+        /**
+         * Serves the connection from a shared selector thread instead of the sending thread.
+         */
+        public Builder eventLoopGroup(EventLoopGroup eventLoopGroup) {
+            this.eventLoopGroup = eventLoopGroup;
+            return this;
+        }
+
+        /**
+         * Wraps a connection accepted by a server instead of opening one; {@code remoteHost} and
+         * {@code remotePort} are taken from it, unless it is a Unix domain socket.
+         */
+        Builder acceptedChannel(SocketChannel acceptedChannel) {
+            this.acceptedChannel = acceptedChannel;
+            return this;
+        }
+
+        /**
+         * Called on the event loop once the peer has closed the connection.
+         */
+        Builder endOfStreamHandler(java.util.function.Consumer<NetworkCommunication> endOfStreamHandler) {
+            this.endOfStreamHandler = endOfStreamHandler;
+            return this;
+        }
+
         @Override
         public NetworkCommunication build() {
+            return prepare() ? new NetworkCommunication(this) : null;
+        }
+
+        /**
+         * Validates the settings, opens the channel and picks its event loop if configured. Builders of
+         * subclasses call it instead of {@code super.build()}, so that the communication is constructed only once:
+         * the constructor leases buffers and takes over the channel.
+         *
+         * @return {@code false} if the settings are invalid or the channel could not be opened
+         */
+        protected boolean prepare() {
+            if (sendBufferSize <= HEADER_SIZE || receiveBufferSize <= HEADER_SIZE || maxFrameSize < 0
+                    || lingerMillis < 0 || smartBatching && eventLoopGroup == null) {
+                return false;
+            }
             try {
-                inputSocket = new Socket();
-                InetSocketAddress address = new InetSocketAddress(host, port);
-                inputSocket.bind(address);
-                return new NetworkCommunication(this);
+                channel = openChannel();
+                channel.configureBlocking(false);
+                eventLoop = eventLoopGroup == null ? null : eventLoopGroup.next(); // registered by the constructor
+                return true;
             } catch (IOException e) {
                 e.printStackTrace();
+                closeQuietly(channel);
+            }
+            return false;
+        }
+
+        /**
+         * Opens the blocking channel, bound to {@code host}:{@code port} and connected to the remote peer if set,
+         * unless a connection has been accepted already. Closes it if anything fails.
+         */
+        protected SocketChannel openChannel() throws IOException {
+            if (acceptedChannel != null) {
+                SocketAddress remote = acceptedChannel.getRemoteAddress();
+                if (remote instanceof InetSocketAddress) { // not for Unix domain sockets
+                    remoteHost = ((InetSocketAddress) remote).getHostString();
+                    remotePort = ((InetSocketAddress) remote).getPort();
+                    inputSocket = acceptedChannel.socket();
+                }
+                return acceptedChannel;
+            }
+            SocketChannel channel = SocketChannel.open();
+            try {
+                inputSocket = channel.socket();
+                channel.bind(new InetSocketAddress(host, port));
+                if (remoteHost != null) {
+                    channel.connect(new InetSocketAddress(remoteHost, remotePort));
+                }
+                return channel;
+            } catch (IOException e) {
+                closeQuietly(channel);
+                throw e;
+            }
+        }
+
+        private static void closeQuietly(SocketChannel channel) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
             }
-            return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package patternbuilder.io;
+
+/**
+ * What an asynchronous {@link InMemoryCommunication} does with a message sent while its ring is full.
+ * <p>
+ * Messages already in the ring are never dropped: the dropping policies keep up to {@code overflowSize} messages
+ * waiting in front of it and drop from there. Every dropped message is counted, a {@code sendAsync} future of a
+ * dropped message completes exceptionally.
+ */
+public enum OverflowPolicy {
+    /**
+     * Waits for a free slot without spinning, woken up by the consumers.
+     */
+    BLOCK,
+    /**
+     * Waits for a free slot spinning, then yielding, then parking for short periods, the default.
+     */
+    SPIN_THEN_PARK,
+    /**
+     * Drops the message being sent.
+     */
+    DROP_NEWEST,
+    /**
+     * Queues the message and, with {@code overflowSize} messages queued already, drops the oldest of them.
+     */
+    DROP_OLDEST,
+    /**
+     * Queues the message in place of a queued one with the same {@code conflationKey}, which is dropped. With
+     * {@code overflowSize} keys queued already the oldest message is dropped.
+     */
+    CONFLATE
+}
@@ -0,0 +1,273 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Spreads messages over {@code partitions} communications built from one prototype builder, so that their
+ * consumers run in parallel, each one in order.
+ * <p>
+ * A message sent with a key hash always goes to the same partition, which keeps messages with equal keys in the
+ * order they were sent. Messages sent without a key go to the partitions in turn, so even a single producer keeps
+ * all of them busy, in no particular order; with {@code stickyRouting} they go to the partition of the sending
+ * thread instead, keeping the order of each thread. With a shared {@code consumer} it is called from every
+ * partition concurrently. Every send, {@code sendAsync} included, counts towards the metrics and the
+ * {@code maxInFlight} window of this communication as well as those of its partition.
+ * <p>
+ * Partitions are built from a copy of the prototype builder each, named {@code name-index} and handed the
+ * {@code consumer} of this builder, if any, measured by the metrics and run as the {@code dispatch} of this builder
+ * say, and then by those of the prototype. Settings that must differ between partitions, such as files or ports,
+ * are set on the copy by the {@code partitionSetup}. The prototype itself is left as it is.
+ */
+public class PartitionedCommunication extends MinimalCommunication {
+    private final MinimalCommunication[] partitions;
+    private final boolean stickyRouting;
+    private final AtomicInteger nextPartition = new AtomicInteger(); // for keyless sends without stickyRouting
+
+    private PartitionedCommunication(Builder builder) throws IOException {
+        super(builder);
+        stickyRouting = builder.stickyRouting;
+        Consumer consumer = getConsumer() == null ? null : new Forwarding(decorated(getConsumer()));
+        partitions = new MinimalCommunication[builder.partitions];
+        for (int i = 0; i < partitions.length; i++) {
+            MinimalCommunication.Builder partition = builder.prototype.copy();
+            if (consumer != null) {
+                partition.consumer(consumer);
+            }
+            partition.name(getName() + "-" + i);
+            if (builder.partitionSetup != null) {
+                builder.partitionSetup.accept(partition, i);
+            }
+            partitions[i] = partition.build();
+            if (partitions[i] == null) {
+                closeQuietly(i);
+                throw new IOException("Could not build partition " + i);
+            }
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    public boolean isStickyRouting() {
+        return stickyRouting;
+    }
+
+    public List<MinimalCommunication> getPartitions() {
+        return Collections.unmodifiableList(Arrays.asList(partitions));
+    }
+
+    /**
+     * @return partition messages with {@code keyHash} are sent to
+     */
+    public MinimalCommunication partition(int keyHash) {
+        return partitions[index(keyHash, partitions.length)];
+    }
+
+    public void send(int keyHash, byte[] bytes) throws Exception {
+        send(keyHash, bytes, 0, bytes.length);
+    }
+
+    public void send(int keyHash, byte[] bytes, int offset, int length) throws Exception {
+        send(partition(keyHash), bytes, offset, length);
+    }
+
+    public void send(int keyHash, ByteBuffer buffer) throws Exception {
+        send(partition(keyHash), buffer);
+    }
+
+    public CompletableFuture<Void> sendAsync(int keyHash, byte[] bytes) {
+        return withPermit(() -> sendAsync(partition(keyHash), bytes));
+    }
+
+    @Override
+    public void send(byte[] bytes) throws Exception {
+        send(keylessPartition(), bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        send(keylessPartition(), bytes, offset, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        send(keylessPartition(), buffer);
+    }
+
+    @Override
+    protected CompletableFuture<Void> doSendAsync(byte[] bytes) {
+        return sendAsync(keylessPartition(), bytes);
+    }
+
+    private void send(MinimalCommunication partition, byte[] bytes, int offset, int length) throws Exception {
+        long start = sendStarted();
+        partition.send(bytes, offset, length);
+        sendCompleted(start, 1, length);
+    }
+
+    private void send(MinimalCommunication partition, ByteBuffer buffer) throws Exception {
+        long start = sendStarted();
+        int length = buffer.remaining();
+        partition.send(buffer);
+        sendCompleted(start, 1, length);
+    }
+
+    private CompletableFuture<Void> sendAsync(MinimalCommunication partition, byte[] bytes) {
+        long start = sendStarted();
+        CompletableFuture<Void> result = partition.sendAsync(bytes);
+        sendCompleted(start, 1, bytes.length);
+        return result;
+    }
+
+    /**
+     * @return partition of the sending thread with {@code stickyRouting}, otherwise the next one in turn
+     */
+    private MinimalCommunication keylessPartition() {
+        if (stickyRouting) {
+            return partition(threadKeyHash());
+        }
+        return partitions[Math.floorMod(nextPartition.getAndIncrement(), partitions.length)];
+    }
+
+    /**
+     * Messages queued by all partitions.
+     */
+    @Override
+    protected long queueDepth() {
+        long depth = 0;
+        for (MinimalCommunication partition : partitions) {
+            depth += partition.queueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Closes every partition, rethrowing the first failure once all of them have been closed.
+     */
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (MinimalCommunication partition : partitions) {
+            try {
+                partition.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Maps {@code keyHash} to {@code [0, count)}, spreading hashes that differ in their high bits only.
+     */
+    static int index(int keyHash, int count) {
+        int mixed = keyHash * 0x9E3779B9; // golden ratio, moves every bit into the high ones
+        return (int) (((mixed & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    private static int threadKeyHash() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32));
+    }
+
+    private void closeQuietly(int built) {
+        for (int i = 0; i < built; i++) {
+            try {
+                partitions[i].close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * Hands deliveries of a partition to the decorated consumer of this communication without looking decorated
+     * itself, so that the partition measures and dispatches them too.
+     */
+    private static final class Forwarding implements Consumer {
+        private final Consumer consumer;
+
+        Forwarding(Consumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void handleDelivery(byte[] bytes) {
+            consumer.handleDelivery(bytes);
+        }
+
+        @Override
+        public void handleDelivery(byte[] bytes, int offset, int length) {
+            consumer.handleDelivery(bytes, offset, length);
+        }
+
+        @Override
+        public void handleDelivery(ByteBuffer buffer) {
+            consumer.handleDelivery(buffer);
+        }
+    }
+
+    public static class Builder extends MinimalCommunication.Builder {
+        private MinimalCommunication.Builder prototype;
+        private int partitions = Runtime.getRuntime().availableProcessors();
+        private ObjIntConsumer<MinimalCommunication.Builder> partitionSetup;
+        private boolean stickyRouting;
+
+        /**
+         * Settings of every partition, copied for each of them.
+         */
+        public Builder prototype(MinimalCommunication.Builder prototype) {
+            this.prototype = prototype;
+            return this;
+        }
+
+        /**
+         * Number of partitions, by default one per available processor.
+         */
+        public Builder partitions(int partitions) {
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * Sends messages without a key to the partition of the sending thread, keeping their order per thread,
+         * instead of to the partitions in turn.
+         */
+        public Builder stickyRouting(boolean stickyRouting) {
+            this.stickyRouting = stickyRouting;
+            return this;
+        }
+
+        /**
+         * Called with the copy of the prototype and the index of the partition before building each of them.
+         */
+        public Builder partitionSetup(ObjIntConsumer<MinimalCommunication.Builder> partitionSetup) {
+            this.partitionSetup = partitionSetup;
+            return this;
+        }
+
+        @Override
+        public PartitionedCommunication build() {
+            if (prototype == null || partitions < 1) {
+                return null;
+            }
+            try {
+                return new PartitionedCommunication(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package patternbuilder.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Reference counted {@link ByteBuffer} leased from a {@link BufferPool}.
+ * <p>
+ * A buffer starts with a reference count of one. Every party keeping it beyond the call it was handed over in
+ * calls {@link #retain()}, and every party done with it calls {@link #release()}; the last release returns the
+ * buffer to its pool. The buffer must not be touched after that.
+ */
+public final class PooledBuffer {
+    private static final AtomicIntegerFieldUpdater<PooledBuffer> REFERENCES =
+            AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "references");
+
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final ByteBuffer buffer;
+    private volatile int references;
+
+    PooledBuffer(BufferPool pool, int sizeClass, ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public int referenceCount() {
+        return references;
+    }
+
+    public PooledBuffer retain() {
+        int current;
+        do {
+            current = references;
+            if (current <= 0) {
+                throw new IllegalStateException("Buffer already released");
+            }
+        } while (!REFERENCES.compareAndSet(this, current, current + 1));
+        return this;
+    }
+
+    /**
+     * @return {@code true} if this was the last reference and the buffer went back to the pool
+     */
+    public boolean release() {
+        int remaining = REFERENCES.decrementAndGet(this);
+        if (remaining > 0) {
+            return false;
+        }
+        if (remaining < 0) {
+            REFERENCES.incrementAndGet(this);
+            throw new IllegalStateException("Buffer already released");
+        }
+        pool.recycle(this);
+        return true;
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    PooledBuffer reset(int size) {
+        buffer.clear();
+        buffer.limit(size);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        references = 1;
+        return this;
+    }
+}
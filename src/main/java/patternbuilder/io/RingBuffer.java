@@ -0,0 +1,317 @@
+package patternbuilder.io;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring of fixed-size message slots shared by many producers and the consuming threads.
+ * <p>
+ * Producers claim a sequence with a single CAS on the cursor, copy the message into the slot and publish it
+ * by flagging the slot as available for the current lap. Every consumer reads the same slots and tracks its
+ * progress with its own gating {@link Sequence}. Once all of them have moved past a slot, the slot is completed
+ * (its {@code sendAsync} future, if any, is resolved) and only then may be reused, which is signalled to the
+ * {@link #onSpaceFreed(Runnable) listener}. A consumer failing on a slot fails its future, or is counted if there is
+ * none.
+ * <p>
+ * With the {@link WaitStrategy#BLOCKING} strategy, consumers sleep on a monitor which producers notify after
+ * publishing whenever somebody is waiting.
+ */
+final class RingBuffer {
+    static final long INITIAL_SEQUENCE = -1;
+    private static final Sequence[] NO_SEQUENCES = new Sequence[0];
+
+    private final int mask;
+    private final int indexShift;
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final Object[] completions; // futures of sendAsync, completed once the slot is delivered
+    private final Object[] failures; // first consumer failure per slot
+    private final AtomicIntegerArray availability; // lap number of the last publish into each slot
+    private final Sequence cursor = new Sequence(INITIAL_SEQUENCE); // highest claimed sequence
+    private final Sequence gatingCache = new Sequence(INITIAL_SEQUENCE);
+    private final Sequence completedSequence = new Sequence(INITIAL_SEQUENCE); // delivered to every consumer
+    private final AtomicBoolean completing = new AtomicBoolean();
+    private final AtomicLong failedDeliveries = new AtomicLong(); // failures without a future to report them
+    private volatile Sequence[] gatingSequences = NO_SEQUENCES;
+    private volatile Runnable spaceListener;
+    private final WaitStrategy waitStrategy;
+    private final Object published = new Object(); // blocking consumers wait on it
+    private volatile int waitingConsumers; // updated under published
+
+    RingBuffer(int size, int slotSize, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two: " + size);
+        }
+        mask = size - 1;
+        indexShift = Integer.numberOfTrailingZeros(size);
+        slots = new byte[size][slotSize];
+        lengths = new int[size];
+        completions = new Object[size];
+        failures = new Object[size];
+        availability = new AtomicIntegerArray(size);
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < size; i++) {
+            availability.set(i, -1);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code value} is above {@code 1 << 30}, the largest int power of two
+     */
+    static int ceilingPowerOfTwo(int value) {
+        if (value > 1 << 30) {
+            throw new IllegalArgumentException("No int power of two above " + value);
+        }
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    int getSize() {
+        return slots.length;
+    }
+
+    WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    int getSlotSize() {
+        return slots[0].length;
+    }
+
+    long getFailedDeliveryCount() {
+        return failedDeliveries.get();
+    }
+
+    /**
+     * Calls {@code listener} on a consuming thread whenever slots become free for reuse.
+     */
+    void onSpaceFreed(Runnable listener) {
+        spaceListener = listener;
+    }
+
+    long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * @return claimed messages not delivered to every consumer yet, {@code 0} without consumers
+     */
+    long getBacklog() {
+        return gatingSequences.length == 0 ? 0 : cursor.get() - completedSequence.get();
+    }
+
+    /**
+     * @return claimed sequence or a negative value if the ring is full
+     */
+    long tryClaim() {
+        long current;
+        long next;
+        do {
+            current = cursor.get();
+            next = current + 1;
+            long wrapPoint = next - slots.length;
+            if (wrapPoint > gatingCache.get()) {
+                long gating = minimumGatingSequence(current);
+                gatingCache.set(gating);
+                if (wrapPoint > gating) {
+                    return -1;
+                }
+            }
+        } while (!cursor.compareAndSet(current, next));
+        return next;
+    }
+
+    /**
+     * Claims the next sequence, waiting for the slowest consumer if the ring is full.
+     */
+    long claim() {
+        long sequence;
+        int idleCount = 0;
+        while ((sequence = tryClaim()) < 0) {
+            idleCount = WaitStrategy.BACKOFF.idle(idleCount);
+        }
+        return sequence;
+    }
+
+    byte[] slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    int length(long sequence) {
+        return lengths[(int) sequence & mask];
+    }
+
+    void publish(long sequence, int length) {
+        int index = (int) sequence & mask;
+        lengths[index] = length;
+        if (waitStrategy != WaitStrategy.BLOCKING) {
+            availability.lazySet(index, (int) (sequence >>> indexShift));
+            return;
+        }
+        availability.set(index, (int) (sequence >>> indexShift)); // ordered before reading waitingConsumers
+        if (waitingConsumers > 0) {
+            wakeConsumers();
+        }
+    }
+
+    /**
+     * Sleeps until {@code sequence} is published or {@link #wakeConsumers()} is called, unless {@code dispatcher}
+     * has been halted already.
+     */
+    void awaitPublished(long sequence, RingBufferDispatcher dispatcher) throws InterruptedException {
+        synchronized (published) {
+            waitingConsumers++;
+            try {
+                if (!isPublished(sequence) && dispatcher.isRunning()) {
+                    published.wait();
+                }
+            } finally {
+                waitingConsumers--;
+            }
+        }
+    }
+
+    void wakeConsumers() {
+        synchronized (published) {
+            published.notifyAll();
+        }
+    }
+
+    void publish(long sequence, int length, CompletableFuture<Void> completion) {
+        completions[(int) sequence & mask] = completion;
+        publish(sequence, length);
+    }
+
+    /**
+     * Records that a consumer failed to handle {@code sequence}; the slot's future completes exceptionally.
+     */
+    void fail(long sequence, Throwable error) {
+        int index = (int) sequence & mask;
+        if (failures[index] == null) {
+            failures[index] = error;
+        }
+    }
+
+    /**
+     * Completes every slot that all consumers have moved past. Called by each consumer after a batch; whichever
+     * consumer is the last to pass a slot completes it.
+     */
+    void completeDelivered() {
+        boolean freed = false;
+        while (completing.compareAndSet(false, true)) {
+            long delivered;
+            try {
+                long completed = completedSequence.get();
+                delivered = minimumSequence(gatingSequences, completed);
+                for (long sequence = Math.max(completed + 1, delivered - slots.length + 1); sequence <= delivered; sequence++) {
+                    complete((int) sequence & mask);
+                }
+                if (delivered > completed) {
+                    completedSequence.setOrdered(delivered);
+                    freed = true;
+                }
+            } finally {
+                completing.set(false);
+            }
+            if (minimumSequence(gatingSequences, delivered) <= delivered) {
+                break;
+            }
+        }
+        if (freed) {
+            spaceFreed();
+        }
+    }
+
+    private void spaceFreed() {
+        Runnable listener = spaceListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(int index) {
+        CompletableFuture<Void> completion = (CompletableFuture<Void>) completions[index];
+        Throwable failure = (Throwable) failures[index];
+        completions[index] = null;
+        failures[index] = null;
+        if (completion == null) {
+            if (failure != null) {
+                failedDeliveries.incrementAndGet();
+            }
+        } else if (failure == null) {
+            completion.complete(null);
+        } else {
+            completion.completeExceptionally(failure);
+        }
+    }
+
+    boolean isPublished(long sequence) {
+        return availability.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * @return the highest sequence in {@code [from, to]} such that every sequence up to it is published,
+     * or {@code from - 1} if {@code from} itself is not published yet
+     */
+    long highestPublished(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++) {
+            if (!isPublished(sequence)) {
+                return sequence - 1;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Starts gating producers on {@code sequence}, which is moved to the current cursor: a consumer joining
+     * at runtime only sees messages published after it joined.
+     */
+    void addGatingSequence(Sequence sequence) {
+        synchronized (this) {
+            sequence.set(cursor.get());
+            Sequence[] current = gatingSequences;
+            Sequence[] updated = new Sequence[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = sequence;
+            gatingSequences = updated;
+            sequence.set(cursor.get()); // producers may have moved on before they could see the new sequence
+        }
+    }
+
+    void removeGatingSequence(Sequence sequence) {
+        synchronized (this) {
+            Sequence[] current = gatingSequences;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == sequence) {
+                    Sequence[] updated = new Sequence[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    gatingSequences = updated;
+                    break;
+                }
+            }
+        }
+        completeDelivered();
+        spaceFreed(); // without consumers left the whole ring is free
+    }
+
+    /**
+     * Slots are reused once completed; with no consumers at all producers are free to overwrite them.
+     */
+    private long minimumGatingSequence(long defaultValue) {
+        return gatingSequences.length == 0 ? defaultValue : Math.min(defaultValue, completedSequence.get());
+    }
+
+    private static long minimumSequence(Sequence[] sequences, long defaultValue) {
+        if (sequences.length == 0) {
+            return defaultValue;
+        }
+        long minimum = Long.MAX_VALUE;
+        for (Sequence sequence : sequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+}
@@ -0,0 +1,102 @@
+package patternbuilder.io;
+
+import patternbuilder.core.Communication;
+
+/**
+ * Dedicated thread delivering messages published to a {@link RingBuffer} to a single {@link Communication.Consumer}.
+ * <p>
+ * Consecutive published messages are delivered as one batch and the gating sequence is advanced once per
+ * batch, which keeps the dispatcher from touching a shared cache line per message. Several dispatchers may
+ * read the same ring, each at its own pace. While there is nothing to deliver, the dispatcher waits as the ring's
+ * {@link WaitStrategy} says.
+ */
+final class RingBufferDispatcher implements Runnable {
+    private final RingBuffer ringBuffer;
+    private final Communication.Consumer consumer;
+    private final Sequence sequence = new Sequence(RingBuffer.INITIAL_SEQUENCE);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    RingBufferDispatcher(RingBuffer ringBuffer, Communication.Consumer consumer, String name) {
+        this.ringBuffer = ringBuffer;
+        this.consumer = consumer;
+        ringBuffer.addGatingSequence(sequence);
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Communication.Consumer getConsumer() {
+        return consumer;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        long next = sequence.get() + 1;
+        int idleCount = 0;
+        WaitStrategy waitStrategy = ringBuffer.getWaitStrategy();
+        while (true) {
+            long available = ringBuffer.highestPublished(next, ringBuffer.getCursor());
+            if (available >= next) {
+                for (long current = next; current <= available; current++) {
+                    dispatch(current);
+                }
+                sequence.setOrdered(available);
+                ringBuffer.completeDelivered();
+                next = available + 1;
+                idleCount = 0;
+            } else if (running) {
+                idleCount = idle(waitStrategy, next, idleCount);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the dispatcher once every message published so far has been delivered, and stops gating producers.
+     */
+    void halt() throws InterruptedException {
+        halt(0);
+    }
+
+    /**
+     * Same as {@link #halt()}, waiting at most {@code timeoutMillis} for the dispatcher to finish, {@code 0} for as
+     * long as it takes. A dispatcher stuck in its consumer is left to finish on its own.
+     */
+    void halt(long timeoutMillis) throws InterruptedException {
+        running = false;
+        if (ringBuffer.getWaitStrategy() == WaitStrategy.BLOCKING) {
+            ringBuffer.wakeConsumers();
+        }
+        if (Thread.currentThread() != thread) {
+            thread.join(timeoutMillis);
+        }
+        ringBuffer.removeGatingSequence(sequence);
+    }
+
+    private int idle(WaitStrategy waitStrategy, long next, int idleCount) {
+        if (waitStrategy != WaitStrategy.BLOCKING) {
+            return waitStrategy.idle(idleCount);
+        }
+        try {
+            ringBuffer.awaitPublished(next, this);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false; // deliver what is published and stop
+        }
+        return idleCount;
+    }
+
+    private void dispatch(long current) {
+        try {
+            consumer.handleDelivery(ringBuffer.slot(current), 0, ringBuffer.length(current));
+        } catch (RuntimeException e) {
+            ringBuffer.fail(current, e);
+        }
+    }
+}
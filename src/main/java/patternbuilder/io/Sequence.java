@@ -0,0 +1,51 @@
+package patternbuilder.io;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Cache-line padded sequence counter, so that cursors updated by different threads do not share a line.
+ */
+final class Sequence extends SequenceRhsPadding {
+    private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    Sequence(long initialValue) {
+        value = initialValue;
+    }
+
+    long get() {
+        return value;
+    }
+
+    void set(long newValue) {
+        value = newValue;
+    }
+
+    /**
+     * Ordered store, cheaper than a volatile write; the value becomes visible to other threads shortly after.
+     */
+    void setOrdered(long newValue) {
+        UPDATER.lazySet(this, newValue);
+    }
+
+    boolean compareAndSet(long expected, long newValue) {
+        return UPDATER.compareAndSet(this, expected, newValue);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
+
+abstract class SequenceLhsPadding {
+    long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class SequenceValue extends SequenceLhsPadding {
+    volatile long value;
+}
+
+abstract class SequenceRhsPadding extends SequenceValue {
+    long p9, p10, p11, p12, p13, p14, p15;
+}
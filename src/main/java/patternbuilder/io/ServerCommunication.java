@@ -0,0 +1,347 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Accepts connections on a {@link ServerSocketChannel} and serves each of them as a {@link NetworkCommunication}.
+ * <p>
+ * Accepting runs on one of the {@link EventLoopGroup}'s loops, accepted connections are spread over all of them.
+ * Frames from every client are delivered to the server's {@code consumer}; {@link #send(byte[])} broadcasts to all
+ * connected clients, while {@link #getConnections()} gives access to each of them. A connection is dropped once
+ * a send to it fails or, with a {@code consumer}, once its client disconnects.
+ * <p>
+ * With a {@code path} the server listens on a Unix domain socket instead of TCP, for
+ * {@link UnixDomainSocketCommunication} clients on the same host. That needs Java 16 or later at runtime, the socket
+ * file is deleted when the server closes.
+ */
+public class ServerCommunication extends MinimalCommunication {
+    public static final int DEFAULT_BACKLOG = 128;
+
+    private final String host;
+    private final int port;
+    private final Path path;
+    private final int backlog;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int maxFrameSize;
+    private final long lingerMillis;
+    private final ServerSocketChannel channel;
+    private final EventLoopGroup eventLoopGroup;
+    private final boolean ownsEventLoopGroup;
+    private final ConnectionListener connectionListener;
+    private final List<NetworkCommunication> connections = new CopyOnWriteArrayList<>();
+    private int connectionCount; // for names, accessed by the accepting loop only
+
+    private ServerCommunication(Builder builder) {
+        super(builder);
+        host = builder.host;
+        port = builder.port;
+        path = builder.path;
+        backlog = builder.backlog;
+        sendBufferSize = builder.sendBufferSize;
+        receiveBufferSize = builder.receiveBufferSize;
+        maxFrameSize = builder.maxFrameSize;
+        lingerMillis = builder.lingerMillis;
+        channel = builder.channel;
+        eventLoopGroup = builder.group;
+        ownsEventLoopGroup = builder.ownsEventLoopGroup;
+        connectionListener = builder.connectionListener;
+        eventLoopGroup.next().register(channel, SelectionKey.OP_ACCEPT, this::accept, null);
+    }
+
+    public ServerSocketChannel getChannel() {
+        return channel;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return port the server listens on, differs from {@link #getPort()} if that one is {@code 0}; {@code -1} for
+     * a Unix domain socket
+     */
+    public int getLocalPort() {
+        return path == null ? channel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * @return socket file the server listens on, {@code null} for TCP
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return currently connected clients
+     */
+    public List<NetworkCommunication> getConnections() {
+        return Collections.unmodifiableList(connections);
+    }
+
+    @Override
+    public void send(byte[] bytes) throws Exception {
+        send(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        long start = sendStarted();
+        for (NetworkCommunication connection : connections) {
+            try {
+                connection.send(bytes, offset, length);
+            } catch (IOException e) {
+                disconnect(connection);
+            }
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        long start = sendStarted();
+        for (NetworkCommunication connection : connections) {
+            try {
+                connection.send(buffer.duplicate());
+            } catch (IOException e) {
+                disconnect(connection);
+            }
+        }
+        sendCompleted(start, 1, buffer.remaining());
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Bytes buffered by all connections.
+     */
+    @Override
+    protected long queueDepth() {
+        long depth = 0;
+        for (NetworkCommunication connection : connections) {
+            depth += connection.queueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            channel.close();
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+            for (NetworkCommunication connection : connections) {
+                disconnect(connection);
+            }
+        } finally {
+            if (ownsEventLoopGroup) {
+                eventLoopGroup.close();
+            }
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel accepted;
+        while ((accepted = channel.accept()) != null) {
+            NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+            builder.acceptedChannel(accepted)
+                    .endOfStreamHandler(this::disconnect)
+                    .sendBufferSize(sendBufferSize)
+                    .receiveBufferSize(receiveBufferSize)
+                    .maxFrameSize(maxFrameSize)
+                    .lingerMillis(lingerMillis)
+                    .eventLoopGroup(eventLoopGroup)
+                    .bufferPool(getBufferPool())
+                    .compression(getCompression())
+                    .consumer(decorated(getConsumer()))
+                    .name(getName() + "-" + connectionCount++);
+            NetworkCommunication connection = builder.build();
+            if (connection != null) {
+                connections.add(connection);
+                if (connectionListener != null) {
+                    connectionListener.connectionOpened(connection);
+                }
+            }
+        }
+    }
+
+    private void disconnect(NetworkCommunication connection) {
+        if (!connections.remove(connection)) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (Exception ignored) { // the client is gone anyway
+        }
+        if (connectionListener != null) {
+            connectionListener.connectionClosed(connection);
+        }
+    }
+
+    /**
+     * Notified about clients connecting and disconnecting. Called on event loop threads, or on a sending thread
+     * for a connection dropped because a send to it failed.
+     */
+    public interface ConnectionListener {
+        void connectionOpened(NetworkCommunication connection);
+
+        default void connectionClosed(NetworkCommunication connection) {
+        }
+    }
+
+    public static class Builder extends MinimalCommunication.Builder {
+        private String host;
+        private int port;
+        private Path path;
+        private int backlog = DEFAULT_BACKLOG;
+        private int sendBufferSize = NetworkCommunication.DEFAULT_SEND_BUFFER_SIZE;
+        private int receiveBufferSize = NetworkCommunication.DEFAULT_RECEIVE_BUFFER_SIZE;
+        private int maxFrameSize = NetworkCommunication.DEFAULT_MAX_FRAME_SIZE;
+        private long lingerMillis = NetworkCommunication.DEFAULT_LINGER_MILLIS;
+        private EventLoopGroup eventLoopGroup;
+        private ConnectionListener connectionListener;
+        private EventLoopGroup group; // of the server being built, eventLoopGroup or a group of its own
+        private boolean ownsEventLoopGroup;
+        private ServerSocketChannel channel;
+
+        /**
+         * Address to listen on, the wildcard address if not set.
+         */
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Socket file to listen on as a Unix domain socket; {@code host} and {@code port} are ignored then. The file
+         * must not exist yet.
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Maximum number of pending connections waiting to be accepted.
+         */
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        /**
+         * Longest payload accepted from a client, a longer frame drops the connection.
+         */
+        public Builder maxFrameSize(int maxFrameSize) {
+            this.maxFrameSize = maxFrameSize;
+            return this;
+        }
+
+        /**
+         * Longest time closing a connection waits for what is still buffered for its client.
+         */
+        public Builder lingerMillis(long lingerMillis) {
+            this.lingerMillis = lingerMillis;
+            return this;
+        }
+
+        /**
+         * Loops to accept and serve connections on. If not set, the server runs its own group with a loop per
+         * available processor and closes it with the server.
+         */
+        public Builder eventLoopGroup(EventLoopGroup eventLoopGroup) {
+            this.eventLoopGroup = eventLoopGroup;
+            return this;
+        }
+
+        public Builder connectionListener(ConnectionListener connectionListener) {
+            this.connectionListener = connectionListener;
+            return this;
+        }
+
+        @Override
+        public ServerCommunication build() {
+            if (backlog < 0 || sendBufferSize <= NetworkCommunication.HEADER_SIZE
+                    || receiveBufferSize <= NetworkCommunication.HEADER_SIZE || maxFrameSize < 0 || lingerMillis < 0) {
+                return null;
+            }
+            channel = null;
+            group = null;
+            ownsEventLoopGroup = false; // the group created by a previous build belongs to that server
+            try {
+                if (path != null) {
+                    channel = UnixDomainSockets.openServerSocketChannel();
+                    channel.bind(UnixDomainSockets.address(path), backlog);
+                } else {
+                    channel = ServerSocketChannel.open();
+                    channel.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port),
+                            backlog);
+                }
+                channel.configureBlocking(false);
+                if (eventLoopGroup == null) {
+                    group = new EventLoopGroup(Runtime.getRuntime().availableProcessors());
+                    ownsEventLoopGroup = true;
+                } else {
+                    group = eventLoopGroup;
+                }
+                return new ServerCommunication(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeQuietly();
+            }
+            return null;
+        }
+
+        private void closeQuietly() {
+            try {
+                if (channel != null) {
+                    boolean bound = path != null && channel.getLocalAddress() != null;
+                    channel.close();
+                    if (bound) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                if (ownsEventLoopGroup) {
+                    group.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exchanges messages between processes on the same host through a memory-mapped file.
+ * <p>
+ * The file holds a header followed by a byte ring of {@code capacity} bytes. Every message is a record of a
+ * 4-byte header ({@code length + 1}, so that a zeroed header means "not written yet") and the payload, padded to
+ * 8 bytes. A record never wraps: if it does not fit before the end of the ring, a padding record sends the
+ * reader back to the start. The producer writes the payload before the record header; the consumer delivers
+ * the payload in place, zeroes the record and advances the consumer position stored in the file header, which
+ * is what the producer checks for free space.
+ * <p>
+ * One process (any number of threads) sends and one process receives: open the same file in both, with a
+ * {@code consumer} in the receiving one. A single process may also do both. Record headers and positions are
+ * written with release stores and read with acquire loads, see {@link MappedAccess}, so a reader never sees a
+ * header before its payload, and a producer never reuses a record before the reader has cleared it.
+ * <p>
+ * The file is created and checked under a {@link FileLock}, and its magic number is written last with a release
+ * store, so a process opening it while another one creates it never sees a half-written file header.
+ * <p>
+ * Both the reader and a producer waiting for free space poll the file header as the {@link WaitStrategy} says.
+ * {@link WaitStrategy#BLOCKING} is not available across processes.
+ */
+public class SharedMemoryCommunication extends MinimalCommunication {
+    public static final int DEFAULT_CAPACITY = 1024 * 1024; // bytes
+    public static final int MAX_CAPACITY = 1 << 30; // bytes
+    static final int MAGIC = 0x50424d31; // "PBM1"
+    static final int MAGIC_OFFSET = 0;
+    static final int CAPACITY_OFFSET = 8;
+    static final int PRODUCER_POSITION_OFFSET = 64; // separate cache lines for both positions
+    static final int CONSUMER_POSITION_OFFSET = 128;
+    static final int FILE_HEADER_SIZE = 192;
+    static final int RECORD_HEADER_SIZE = 4;
+    static final int RECORD_ALIGNMENT = 8;
+    private static final int PADDING = -1;
+
+    private final Path file;
+    private final int capacity;
+    private final int maxMessageSize;
+    private final WaitStrategy waitStrategy;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mapped;
+    private final Object sendLock = new Object();
+    private long producerPosition; // guarded by sendLock
+    private long cachedConsumerPosition; // guarded by sendLock
+    private final Reader reader;
+    private final Consumer deliveryConsumer;
+    private final MappedAccess access = MappedAccess.INSTANCE;
+
+    private SharedMemoryCommunication(Builder builder) {
+        super(builder);
+        file = builder.file;
+        fileChannel = builder.fileChannel;
+        mapped = builder.mapped;
+        capacity = mapped.getInt(CAPACITY_OFFSET);
+        maxMessageSize = capacity / 2 - RECORD_HEADER_SIZE;
+        waitStrategy = builder.waitStrategy;
+        producerPosition = mapped.getLong(PRODUCER_POSITION_OFFSET);
+        cachedConsumerPosition = mapped.getLong(CONSUMER_POSITION_OFFSET);
+        deliveryConsumer = decorated(getConsumer());
+        reader = getConsumer() == null ? null : new Reader("shared-memory-reader-" + getName());
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @Override
+    public void send(byte[] bytes) throws Exception {
+        send(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void send(byte[] bytes, int offset, int length) throws Exception {
+        long start = sendStarted();
+        synchronized (sendLock) {
+            int index = claim(length);
+            ByteBuffer view = mapped.duplicate();
+            view.position(FILE_HEADER_SIZE + index + RECORD_HEADER_SIZE);
+            view.put(bytes, offset, length);
+            commit(index, length);
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    @Override
+    public void send(ByteBuffer buffer) throws Exception {
+        long start = sendStarted();
+        int length = buffer.remaining();
+        synchronized (sendLock) {
+            int index = claim(length);
+            ByteBuffer view = mapped.duplicate();
+            view.position(FILE_HEADER_SIZE + index + RECORD_HEADER_SIZE);
+            view.put(buffer);
+            commit(index, length);
+        }
+        sendCompleted(start, 1, length);
+    }
+
+    /**
+     * Bytes in the ring not consumed yet, as seen in the file header.
+     */
+    @Override
+    protected long queueDepth() {
+        return mapped.getLong(PRODUCER_POSITION_OFFSET) - mapped.getLong(CONSUMER_POSITION_OFFSET);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (reader != null) {
+            reader.halt();
+        }
+        fileChannel.close();
+    }
+
+    /**
+     * Waits for room for a record carrying {@code length} bytes, inserting padding if it would wrap.
+     *
+     * @return ring index of the record
+     */
+    private int claim(int length) {
+        if (length > maxMessageSize) {
+            throw new IllegalStateException("Too big message");
+        }
+        int recordSize = align(RECORD_HEADER_SIZE + length);
+        int index = (int) (producerPosition & (capacity - 1));
+        int padding = capacity - index < recordSize ? capacity - index : 0;
+        awaitFreeSpace(padding + recordSize);
+        if (padding > 0) {
+            mapped.putInt(FILE_HEADER_SIZE + index, PADDING);
+            producerPosition += padding;
+            index = 0;
+        }
+        return index;
+    }
+
+    private void commit(int index, int length) {
+        access.putIntRelease(mapped, FILE_HEADER_SIZE + index, length + 1); // publishes the payload
+        producerPosition += align(RECORD_HEADER_SIZE + length);
+        access.putLongRelease(mapped, PRODUCER_POSITION_OFFSET, producerPosition);
+    }
+
+    private void awaitFreeSpace(int required) {
+        int idleCount = 0;
+        while (producerPosition + required - cachedConsumerPosition > capacity) {
+            idleCount = waitStrategy.idle(idleCount);
+            cachedConsumerPosition = access.getLongAcquire(mapped, CONSUMER_POSITION_OFFSET);
+        }
+    }
+
+    private static int align(int size) {
+        return (size + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    /**
+     * Polls the ring and delivers records to the consumer on a dedicated thread. Records left when it is halted
+     * stay in the file for the next reader.
+     */
+    private final class Reader implements Runnable {
+        private final Thread thread;
+        private final ByteBuffer view = mapped.duplicate();
+        private volatile boolean running = true;
+
+        Reader(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            long position = mapped.getLong(CONSUMER_POSITION_OFFSET);
+            int idleCount = 0;
+            while (running) {
+                int index = (int) (position & (capacity - 1));
+                int header = access.getIntAcquire(mapped, FILE_HEADER_SIZE + index); // payload loads come after
+                if (header == 0) {
+                    idleCount = waitStrategy.idle(idleCount);
+                    continue;
+                }
+                idleCount = 0;
+                int recordSize;
+                if (header == PADDING) {
+                    recordSize = capacity - index;
+                } else {
+                    recordSize = align(RECORD_HEADER_SIZE + header - 1);
+                    deliver(index, header - 1);
+                }
+                zero(index, recordSize);
+                position += recordSize;
+                access.putLongRelease(mapped, CONSUMER_POSITION_OFFSET, position); // the producer may reuse the record
+            }
+        }
+
+        private void deliver(int index, int length) {
+            int start = FILE_HEADER_SIZE + index + RECORD_HEADER_SIZE;
+            view.limit(start + length).position(start);
+            try {
+                deliveryConsumer.handleDelivery(view);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            view.clear();
+        }
+
+        private void zero(int index, int recordSize) {
+            int end = FILE_HEADER_SIZE + index + recordSize;
+            for (int offset = FILE_HEADER_SIZE + index + RECORD_ALIGNMENT; offset < end; offset += RECORD_ALIGNMENT) {
+                mapped.putLong(offset, 0L);
+            }
+            mapped.putLong(FILE_HEADER_SIZE + index, 0L);
+        }
+
+        void halt() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+    }
+
+    public static class Builder extends MinimalCommunication.Builder {
+        private static final Object CREATE_LOCK = new Object(); // a FileLock only excludes other processes
+        private Path file;
+        private int capacity = DEFAULT_CAPACITY;
+        private WaitStrategy waitStrategy = WaitStrategy.BACKOFF;
+        private FileChannel fileChannel;
+        private MappedByteBuffer mapped;
+
+        /**
+         * File shared by both processes. Created if missing; an existing file keeps its own capacity.
+         */
+        public Builder file(Path file) {
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * Size of the ring in bytes, rounded up to a power of two, at most {@value #MAX_CAPACITY}.
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * How the reader and producers wait, {@link WaitStrategy#BACKOFF} by default. Blocking is not supported.
+         */
+        public Builder waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        @Override
+        public SharedMemoryCommunication build() {
+            if (file == null || capacity < 2 * RECORD_ALIGNMENT || waitStrategy == null
+                    || waitStrategy == WaitStrategy.BLOCKING) {
+                return null;
+            }
+            if (capacity > MAX_CAPACITY) {
+                throw new IllegalArgumentException("Capacity above " + MAX_CAPACITY + ": " + capacity);
+            }
+            try {
+                fileChannel = FileChannel.open(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                synchronized (CREATE_LOCK) {
+                    try (FileLock ignored = fileChannel.lock()) {
+                        mapped = fileChannel.size() == 0 ? create() : open();
+                    }
+                }
+                return new SharedMemoryCommunication(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (fileChannel != null) {
+                    try {
+                        fileChannel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            return null;
+        }
+
+        private MappedByteBuffer create() throws IOException {
+            int ringCapacity = RingBuffer.ceilingPowerOfTwo(capacity);
+            MappedByteBuffer result = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    FILE_HEADER_SIZE + ringCapacity);
+            result.putInt(CAPACITY_OFFSET, ringCapacity);
+            MappedAccess.INSTANCE.putIntRelease(result, MAGIC_OFFSET, MAGIC); // publishes the header
+            return result;
+        }
+
+        private MappedByteBuffer open() throws IOException {
+            long size = fileChannel.size();
+            MappedByteBuffer result = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (size < FILE_HEADER_SIZE || MappedAccess.INSTANCE.getIntAcquire(result, MAGIC_OFFSET) != MAGIC
+                    || size != FILE_HEADER_SIZE + result.getInt(CAPACITY_OFFSET)) {
+                throw new IOException("Not a shared memory communication file: " + file);
+            }
+            return result;
+        }
+    }
+}
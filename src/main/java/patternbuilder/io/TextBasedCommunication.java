@@ -3,14 +3,22 @@ package patternbuilder.io;
 import java.nio.charset.Charset;
 
 /**
+ * Sends text encoded with {@code charset}.
+ * <p>
+ * Text is encoded into a buffer owned by the connection, so sending a {@link CharSequence} such as a reused
+ * {@link StringBuilder} does not allocate.
+ *
  * @author Roman Katerinenko
  */
 public class TextBasedCommunication extends NetworkCommunication {
     private final Charset charset;
+    private final TextEncoder encoder;
+    private TextEncoder loopEncoder; // used by the event loop thread only, which must not wait for the encoder
 
     protected TextBasedCommunication(Builder builder) {
         super(builder);
         charset = builder.charset;
+        encoder = charset == null ? null : new TextEncoder(charset, getSendBufferSize());
     }
 
     public Charset getCharset() {
@@ -18,7 +26,23 @@ public class TextBasedCommunication extends NetworkCommunication {
     }
 
     public void send(String string) throws Exception {
-        send(string.getBytes(getCharset()));
+        send((CharSequence) string);
+    }
+
+    public void send(CharSequence text) throws Exception {
+        if (encoder == null) {
+            throw new IllegalStateException("No charset");
+        }
+        if (inEventLoop()) {
+            if (loopEncoder == null) {
+                loopEncoder = new TextEncoder(charset, getSendBufferSize());
+            }
+            send(loopEncoder.encode(text));
+            return;
+        }
+        synchronized (encoder) {
+            send(encoder.encode(text));
+        }
     }
 
     public static class Builder extends NetworkCommunication.Builder {
@@ -30,9 +54,8 @@ public class TextBasedCommunication extends NetworkCommunication {
         }
 
         @Override
-        public TextBasedCommunication build() { // Note! we call super.build() to initialize parent.
-            super.build(); // ignore result
-            return new TextBasedCommunication(this); // implicitely assume that creation of the parent happens only through constructor, not setters. Builder is only for creation, not for anything else!
+        public TextBasedCommunication build() {
+            return prepare() ? new TextBasedCommunication(this) : null;
         }
     }
 }
@@ -0,0 +1,133 @@
+package patternbuilder.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes any {@link CharSequence} into a reusable buffer, producing the same bytes as {@link String#getBytes(Charset)}.
+ * <p>
+ * UTF-8, US-ASCII and ISO-8859-1 are encoded by hand, which is a plain copy loop for ASCII text. Other charsets go
+ * through a cached {@link CharsetEncoder} fed from a reusable char buffer. Nothing is allocated unless a message is
+ * larger than every message before it. Not thread-safe.
+ */
+final class TextEncoder {
+    private static final int CHUNK_SIZE = 1024; // chars copied into the encoder input at once
+    private static final byte REPLACEMENT = '?';
+
+    private final Charset charset;
+    private final CharsetEncoder encoder;
+    private final int maxBytesPerChar;
+    private CharBuffer chars;
+    private ByteBuffer bytes;
+
+    TextEncoder(Charset charset, int initialCapacity) {
+        this.charset = charset;
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        maxBytesPerChar = (int) Math.ceil(encoder.maxBytesPerChar());
+        bytes = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * @return buffer holding the encoded text between position and limit, valid until the next call
+     */
+    ByteBuffer encode(CharSequence text) {
+        int length = text.length();
+        ensureCapacity((long) length * maxBytesPerChar);
+        bytes.clear();
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            encodeUtf8(text, length);
+        } else if (StandardCharsets.US_ASCII.equals(charset)) {
+            encodeSingleByte(text, length, 0x80);
+        } else if (StandardCharsets.ISO_8859_1.equals(charset)) {
+            encodeSingleByte(text, length, 0x100);
+        } else {
+            encodeWithEncoder(text, length);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private void encodeUtf8(CharSequence text, int length) {
+        ByteBuffer out = bytes;
+        int i = 0;
+        while (i < length && text.charAt(i) < 0x80) { // ASCII fast path
+            out.put((byte) text.charAt(i++));
+        }
+        while (i < length) {
+            char c = text.charAt(i++);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(text.charAt(i))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(i++));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put(REPLACEMENT);
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void encodeSingleByte(CharSequence text, int length, int limit) {
+        ByteBuffer out = bytes;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < limit) {
+                out.put((byte) c);
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++; // a pair is replaced by a single character
+                }
+                out.put(REPLACEMENT);
+            }
+        }
+    }
+
+    private void encodeWithEncoder(CharSequence text, int length) {
+        if (chars == null) {
+            chars = CharBuffer.allocate(CHUNK_SIZE);
+        }
+        encoder.reset();
+        chars.clear();
+        int next = 0;
+        while (true) {
+            while (chars.hasRemaining() && next < length) {
+                chars.put(text.charAt(next++));
+            }
+            chars.flip();
+            CoderResult result = encoder.encode(chars, bytes, next == length);
+            if (result.isOverflow()) {
+                throw new IllegalStateException("Encoded text exceeds " + bytes.capacity() + " bytes");
+            }
+            chars.compact(); // keeps a high surrogate split across chunks
+            if (next == length && chars.position() == 0) {
+                break;
+            }
+        }
+        encoder.flush(bytes);
+    }
+
+    private void ensureCapacity(long required) {
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Text too long: " + required + " bytes");
+        }
+        if (bytes.capacity() < required) {
+            bytes = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L * bytes.capacity())));
+        }
+    }
+}
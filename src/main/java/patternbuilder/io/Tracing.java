@@ -0,0 +1,51 @@
+package patternbuilder.io;
+
+/**
+ * Emits JDK Flight Recorder events for sends and deliveries when the running JVM has JFR, otherwise does nothing.
+ * <p>
+ * The events are disabled by default: enable {@code patternbuilder.Send} and {@code patternbuilder.Delivery} in
+ * the recording settings. While they are off, a send costs one check of the event state.
+ */
+abstract class Tracing {
+    static final Tracing INSTANCE = create();
+
+    abstract boolean isSendEnabled();
+
+    abstract void sendCompleted(String communication, int messages, long bytes, long startNanos);
+
+    /**
+     * @return the begun delivery event, {@code null} while delivery events are disabled
+     */
+    abstract Object deliveryStarted();
+
+    abstract void deliveryCompleted(Object event, String communication, int bytes);
+
+    private static Tracing create() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Tracing) Class.forName("patternbuilder.io.FlightRecorderTracing").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new Disabled();
+        }
+    }
+
+    private static final class Disabled extends Tracing {
+        @Override
+        boolean isSendEnabled() {
+            return false;
+        }
+
+        @Override
+        void sendCompleted(String communication, int messages, long bytes, long startNanos) {
+        }
+
+        @Override
+        Object deliveryStarted() {
+            return null;
+        }
+
+        @Override
+        void deliveryCompleted(Object event, String communication, int bytes) {
+        }
+    }
+}
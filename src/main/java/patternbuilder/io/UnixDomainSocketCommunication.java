@@ -0,0 +1,58 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Sends the same length-prefixed frames as {@link NetworkCommunication} over a Unix domain socket, for peers on
+ * the same host: traffic bypasses the TCP/IP stack. Needs Java 16 or later at runtime, {@code build()} returns
+ * {@code null} on older versions.
+ * <p>
+ * Connects to a peer listening on {@code path}, such as a {@link ServerCommunication} built with the same path.
+ * {@code host} and {@code port} are ignored and there is no {@link #getInputSocket() input socket}.
+ */
+public class UnixDomainSocketCommunication extends NetworkCommunication {
+    private final Path path;
+
+    protected UnixDomainSocketCommunication(Builder builder) {
+        super(builder);
+        path = builder.path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public static class Builder extends NetworkCommunication.Builder {
+        private Path path;
+
+        /**
+         * Socket file the peer listens on.
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        @Override
+        protected SocketChannel openChannel() throws IOException {
+            SocketChannel channel = UnixDomainSockets.openSocketChannel();
+            try {
+                channel.connect(UnixDomainSockets.address(path));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public UnixDomainSocketCommunication build() {
+            if (path == null || !prepare()) {
+                return null;
+            }
+            return new UnixDomainSocketCommunication(this);
+        }
+    }
+}
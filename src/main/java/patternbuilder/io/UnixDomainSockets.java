@@ -0,0 +1,75 @@
+package patternbuilder.io;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Reaches the Unix domain socket API of Java 16+ reflectively, so the library still runs on Java 8.
+ */
+final class UnixDomainSockets {
+    private static final ProtocolFamily UNIX;
+    private static final Method ADDRESS_OF;
+    private static final Method OPEN_SOCKET_CHANNEL;
+    private static final Method OPEN_SERVER_SOCKET_CHANNEL;
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null;
+        Method openSocketChannel = null;
+        Method openServerSocketChannel = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            openSocketChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openServerSocketChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            unix = null;
+        }
+        UNIX = unix;
+        ADDRESS_OF = addressOf;
+        OPEN_SOCKET_CHANNEL = openSocketChannel;
+        OPEN_SERVER_SOCKET_CHANNEL = openServerSocketChannel;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    static SocketAddress address(Path path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, path);
+    }
+
+    static SocketChannel openSocketChannel() throws IOException {
+        return (SocketChannel) invoke(OPEN_SOCKET_CHANNEL, UNIX);
+    }
+
+    static ServerSocketChannel openServerSocketChannel() throws IOException {
+        return (ServerSocketChannel) invoke(OPEN_SERVER_SOCKET_CHANNEL, UNIX);
+    }
+
+    private static Object invoke(Method method, Object argument) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets require Java 16 or later");
+        }
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package patternbuilder.io;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reaches the virtual threads of Java 21+ reflectively, so the library still runs on Java 8.
+ */
+final class VirtualThreads {
+    private static final int FALLBACK_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final Executor EXECUTOR = createExecutor();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return executor starting a virtual thread per task or, where virtual threads are not available, a pool of
+     * daemon platform threads, one per available processor, that queues tasks while all of them are busy
+     */
+    static Executor executor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * @return {@code true} on Java 21+, {@code false} if {@link #executor()} runs at most
+     * {@link #fallbackThreads()} tasks at once
+     */
+    static boolean available() {
+        return !(EXECUTOR instanceof ThreadPoolExecutor);
+    }
+
+    static int fallbackThreads() {
+        return FALLBACK_THREADS;
+    }
+
+    private static Executor createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(FALLBACK_THREADS, FALLBACK_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), task -> {
+                        Thread thread = new Thread(task, "dispatch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package patternbuilder.io;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for messages in {@link InMemoryCommunication} and {@link SharedMemoryCommunication}, trading
+ * latency for CPU time.
+ */
+public enum WaitStrategy {
+    /**
+     * Keeps polling, occupying a core but reacting fastest. Best with a thread per core to spare.
+     */
+    BUSY_SPIN {
+        @Override
+        int idle(int idleCount) {
+            return idleCount;
+        }
+    },
+    /**
+     * Polls a hundred times, then yields the processor between polls.
+     */
+    SPIN_YIELD {
+        @Override
+        int idle(int idleCount) {
+            if (idleCount < SPIN_TRIES) {
+                return idleCount + 1;
+            }
+            Thread.yield();
+            return idleCount;
+        }
+    },
+    /**
+     * Spins, then yields, then parks for {@link LockSupport#parkNanos(long) a microsecond} between polls, the
+     * default.
+     */
+    BACKOFF {
+        @Override
+        int idle(int idleCount) {
+            if (idleCount < SPIN_TRIES) {
+                return idleCount + 1;
+            }
+            if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+                return idleCount + 1;
+            }
+            LockSupport.parkNanos(1_000L);
+            return idleCount;
+        }
+    },
+    /**
+     * Sleeps until a producer signals a new message, using no CPU while idle at the cost of a wake-up per burst
+     * and of a signalling check on every publish. Only within a process.
+     */
+    BLOCKING {
+        @Override
+        int idle(int idleCount) {
+            return BACKOFF.idle(idleCount); // where there is nobody to signal
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+
+    /**
+     * Waits a little after a poll found nothing.
+     *
+     * @return the idle counter to pass to the next call, which starts at {@code 0} after every successful poll
+     */
+    abstract int idle(int idleCount);
+}
@@ -0,0 +1,94 @@
+package patternbuilder.io;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link Tracing} through {@code jdk.jfr}. Packaged for Java 11+ only, and loaded only when the JVM provides JFR.
+ */
+final class FlightRecorderTracing extends Tracing {
+    private final SendEvent sendProbe = new SendEvent(); // never committed, only asked whether sends are traced
+    private final DeliveryEvent deliveryProbe = new DeliveryEvent();
+
+    @Override
+    boolean isSendEnabled() {
+        return sendProbe.isEnabled();
+    }
+
+    @Override
+    void sendCompleted(String communication, int messages, long bytes, long startNanos) {
+        SendEvent event = new SendEvent();
+        if (event.isEnabled()) {
+            event.communication = communication;
+            event.messages = messages;
+            event.bytes = bytes;
+            event.sendTime = System.nanoTime() - startNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    Object deliveryStarted() {
+        if (!deliveryProbe.isEnabled()) {
+            return null;
+        }
+        DeliveryEvent event = new DeliveryEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void deliveryCompleted(Object started, String communication, int bytes) {
+        DeliveryEvent event = (DeliveryEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.communication = communication;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Committed when a send returns; {@code sendTime} is the time spent in it.
+     */
+    @Name("patternbuilder.Send")
+    @Label("Send")
+    @Category("Pattern Builder")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class SendEvent extends Event {
+        @Label("Communication")
+        String communication;
+
+        @Label("Messages")
+        int messages;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Send Time")
+        @Timespan
+        long sendTime;
+    }
+
+    @Name("patternbuilder.Delivery")
+    @Label("Delivery")
+    @Category("Pattern Builder")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class DeliveryEvent extends Event {
+        @Label("Communication")
+        String communication;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,35 @@
+package patternbuilder.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link MappedAccess} through byte buffer view {@link VarHandle}s. Packaged for Java 11+ only. Buffers are
+ * accessed in the big-endian order {@link ByteBuffer} uses by default.
+ */
+final class VarHandleMappedAccess extends MappedAccess {
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    @Override
+    void putIntRelease(ByteBuffer buffer, int index, int value) {
+        INTS.setRelease(buffer, index, value);
+    }
+
+    @Override
+    int getIntAcquire(ByteBuffer buffer, int index) {
+        return (int) INTS.getAcquire(buffer, index);
+    }
+
+    @Override
+    void putLongRelease(ByteBuffer buffer, int index, long value) {
+        LONGS.setRelease(buffer, index, value);
+    }
+
+    @Override
+    long getLongAcquire(ByteBuffer buffer, int index) {
+        return (long) LONGS.getAcquire(buffer, index);
+    }
+}
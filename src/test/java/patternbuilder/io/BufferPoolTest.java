@@ -0,0 +1,86 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void reusesReleasedBuffersPerSizeClass() {
+        BufferPool pool = new BufferPool.Builder().direct(true).build();
+        PooledBuffer small = pool.lease(100);
+        assertTrue(small.buffer().isDirect());
+        assertEquals(128, small.capacity());
+        assertEquals(100, small.buffer().limit());
+        assertTrue(small.release());
+
+        assertSame(small, pool.lease(65));
+        assertNotSame(small, pool.lease(129));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void returnsBufferOnLastRelease() {
+        BufferPool pool = new BufferPool.Builder().build();
+        PooledBuffer buffer = pool.lease(10);
+        buffer.retain();
+        assertEquals(2, buffer.referenceCount());
+        assertFalse(buffer.release());
+        assertTrue(buffer.release());
+        assertEquals(0, buffer.referenceCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleRelease() {
+        PooledBuffer buffer = new BufferPool.Builder().build().lease(10);
+        buffer.release();
+        buffer.release();
+    }
+
+    @Test
+    public void sharesBuffersBetweenThreadsWhenCacheIsFull() throws Exception {
+        BufferPool pool = new BufferPool.Builder().threadCacheSize(0).build();
+        PooledBuffer buffer = pool.lease(10);
+        CompletableFuture.runAsync(buffer::release).get();
+        assertSame(buffer, pool.lease(10));
+    }
+
+    @Test
+    public void doesNotPoolOversizedBuffers() {
+        BufferPool pool = new BufferPool.Builder().maxBufferSize(1024).build();
+        PooledBuffer buffer = pool.lease(4096);
+        assertEquals(4096, buffer.capacity());
+        buffer.release();
+        assertNotSame(buffer, pool.lease(4096));
+    }
+
+    @Test
+    public void rejectsInvalidConfiguration() {
+        assertNull(new BufferPool.Builder().minBufferSize(1024).maxBufferSize(64).build());
+    }
+
+    @Test
+    public void networkCommunicationLeasesSendBuffer() throws Exception {
+        BufferPool pool = new BufferPool.Builder().direct(true).build();
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.sendBufferSize(1000)
+                .host("127.0.0.1")
+                .port(0)
+                .bufferPool(pool);
+        NetworkCommunication communication = builder.build();
+        assertSame(pool, communication.getBufferPool());
+        assertEquals(1024, communication.getSendBufferSize());
+        communication.close();
+        communication.close();
+        assertEquals(1024, pool.lease(1000).capacity());
+        assertEquals(1, pool.getAllocationCount());
+    }
+}
@@ -0,0 +1,93 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionTest {
+    private static final byte[] JSON = ("{\"symbol\":\"EURUSD\",\"bid\":1.0842,\"ask\":1.0843,\"venue\":\"primary\","
+            + "\"timestamp\":1700000000000,\"symbol2\":\"EURUSD\",\"bid2\":1.0842,\"ask2\":1.0843}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void passesSmallMessagesThrough() throws Exception {
+        Compression.Codec codec = new Compression.Builder().threshold(64).build().codec();
+        ByteBuffer message = codec.compress(new byte[]{1, 2, 3}, 0, 3);
+        assertEquals(4, message.remaining());
+        assertEquals(Compression.RAW, message.get(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, toArray(codec.decompress(message)));
+    }
+
+    @Test
+    public void deflatesRepetitiveMessages() throws Exception {
+        Compression.Codec codec = new Compression.Builder().threshold(64).build().codec();
+        ByteBuffer direct = ByteBuffer.allocateDirect(JSON.length);
+        direct.put(JSON).flip();
+        ByteBuffer message = codec.compress(direct);
+        assertEquals(0, direct.remaining());
+        assertEquals(Compression.DEFLATED, message.get(0));
+        assertTrue(message.remaining() < JSON.length);
+        assertArrayEquals(JSON, toArray(codec.decompress(message)));
+    }
+
+    @Test
+    public void dictionaryShrinksMessagesFurther() throws Exception {
+        Compression.Codec plain = new Compression.Builder().threshold(0).build().codec();
+        Compression.Codec withDictionary = new Compression.Builder().threshold(0).dictionary(JSON).build().codec();
+        int plainSize = plain.compress(JSON, 0, JSON.length).remaining();
+        ByteBuffer message = withDictionary.compress(JSON, 0, JSON.length);
+        assertTrue(message.remaining() < plainSize / 2);
+        assertArrayEquals(JSON, toArray(withDictionary.decompress(message)));
+    }
+
+    @Test
+    public void sendsIncompressibleMessagesRaw() throws Exception {
+        byte[] random = new byte[1000];
+        new Random(42).nextBytes(random);
+        Compression.Codec codec = new Compression.Builder().threshold(0).build().codec();
+        ByteBuffer message = codec.compress(random, 0, random.length);
+        assertEquals(Compression.RAW, message.get(0));
+        assertArrayEquals(random, toArray(codec.decompress(message)));
+        assertNull(new Compression.Builder().level(10).build());
+    }
+
+    @Test
+    public void rejectsLengthsBeyondMaxDecompressedSize() throws Exception {
+        Compression compression = new Compression.Builder().threshold(0).maxDecompressedSize(100).build();
+        try (Compression.Codec codec = compression.codec()) {
+            ByteBuffer message = codec.compress(JSON, 0, JSON.length);
+            assertEquals(Compression.DEFLATED, message.get(0));
+            message.putInt(1, Integer.MAX_VALUE); // claimed by a hostile peer
+            codec.decompress(message);
+            fail();
+        } catch (DataFormatException expected) {
+        }
+        assertNull(new Compression.Builder().maxDecompressedSize(-1).build());
+    }
+
+    @Test
+    public void reusesReturnedCodecs() {
+        Compression compression = new Compression.Builder().build();
+        Compression.Codec codec = compression.codec();
+        codec.close();
+        assertSame(codec, compression.codec());
+        assertNotSame(codec, compression.codec());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
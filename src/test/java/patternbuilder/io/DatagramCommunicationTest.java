@@ -0,0 +1,126 @@
+package patternbuilder.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatagramCommunicationTest {
+    private static final String HOST = "127.0.0.1";
+
+    private final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+    private CountDownLatch delivered;
+    private DatagramCommunication receiver;
+    private DatagramCommunication sender;
+
+    @Before
+    public void setUp() throws Exception {
+        delivered = new CountDownLatch(1);
+        DatagramCommunication.Builder builder = new DatagramCommunication.Builder();
+        builder.host(HOST)
+                .consumer(bytes -> {
+                    received.add(ByteBuffer.wrap(bytes).getInt());
+                    delivered.countDown();
+                });
+        receiver = builder.build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+        }
+        receiver.close();
+    }
+
+    @Test
+    public void packsMessagesIntoDatagrams() throws Exception {
+        int messages = 500;
+        delivered = new CountDownLatch(messages);
+        DatagramCommunication.Builder builder = new DatagramCommunication.Builder();
+        builder.autoFlush(false)
+                .maxDatagramSize(1000)
+                .remoteHost(HOST)
+                .remotePort(receiverPort());
+        sender = builder.build();
+        ByteBuffer message = ByteBuffer.allocate(4);
+        for (int i = 0; i < messages; i++) {
+            message.clear();
+            message.putInt(i).flip();
+            sender.send(message); // about 160 messages per datagram
+        }
+        sender.flush();
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < messages; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+        assertEquals(0, receiver.getLostMessageCount());
+    }
+
+    @Test
+    public void countsMissingSequenceNumbers() throws Exception {
+        delivered = new CountDownLatch(3);
+        try (DatagramChannel raw = DatagramChannel.open()) {
+            InetSocketAddress target = new InetSocketAddress(HOST, receiverPort());
+            raw.send(datagram(1, 0), target);
+            raw.send(datagram(1, 5), target); // 1..4 lost
+            raw.send(datagram(1, 3), target); // late, dropped
+            raw.send(datagram(1, 6), target);
+        }
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(4, receiver.getLostMessageCount());
+        assertEquals(3, received.size());
+        assertEquals(6, (int) received.get(2));
+    }
+
+    @Test
+    public void startsOverWhenSenderRestartsEvenIfItsFirstDatagramIsLost() throws Exception {
+        delivered = new CountDownLatch(4);
+        try (DatagramChannel raw = DatagramChannel.open()) {
+            InetSocketAddress target = new InetSocketAddress(HOST, receiverPort());
+            raw.send(datagram(7, 0), target);
+            raw.send(datagram(7, 1), target);
+            raw.send(datagram(7, 2), target);
+            // restarted on the same address, its datagram 0 lost
+            raw.send(datagram(8, 1), target);
+            raw.send(datagram(8, 2), target);
+        }
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 1), new ArrayList<>(received.subList(0, 4)));
+        assertEquals(1, receiver.getLostMessageCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMessagesLargerThanDatagram() throws Exception {
+        DatagramCommunication.Builder builder = new DatagramCommunication.Builder();
+        builder.maxDatagramSize(100).remoteHost(HOST).remotePort(receiverPort());
+        sender = builder.build();
+        sender.send(new byte[100]);
+    }
+
+    private int receiverPort() throws Exception {
+        return ((InetSocketAddress) receiver.getChannel().getLocalAddress()).getPort();
+    }
+
+    private static ByteBuffer datagram(int session, long sequence) {
+        ByteBuffer datagram = ByteBuffer.allocate(DatagramCommunication.DATAGRAM_HEADER_SIZE + 6);
+        datagram.putLong(sequence).putShort((short) 1).putInt(session)
+                .putShort((short) 4).putInt((int) sequence).flip();
+        return datagram;
+    }
+}
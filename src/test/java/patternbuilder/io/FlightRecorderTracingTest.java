@@ -0,0 +1,67 @@
+package patternbuilder.io;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderTracingTest {
+
+    @Test
+    public void recordsSendAndDeliveryEvents() throws Exception {
+        Path file = Files.createTempFile("tracing", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("patternbuilder.Send");
+            recording.enable("patternbuilder.Delivery");
+            recording.start();
+            InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+            builder.memoryBufferSize(64)
+                    .consumer(bytes -> {
+                    })
+                    .name("traced");
+            InMemoryCommunication communication = builder.build();
+            communication.send(new byte[]{1, 2, 3});
+            communication.close();
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            RecordedEvent send = find(events, "patternbuilder.Send");
+            assertEquals("traced", send.getString("communication"));
+            assertEquals(1, send.getInt("messages"));
+            assertEquals(3, send.getLong("bytes"));
+            assertTrue(send.getLong("sendTime") > 0);
+            RecordedEvent delivery = find(events, "patternbuilder.Delivery");
+            assertEquals("traced", delivery.getString("communication"));
+            assertEquals(3, delivery.getLong("bytes"));
+            assertEquals(Thread.currentThread().getName(), delivery.getThread().getJavaName());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void eventsAreDisabledByDefault() {
+        assertEquals("FlightRecorderTracing", Tracing.INSTANCE.getClass().getSimpleName());
+        assertFalse(Tracing.INSTANCE.isSendEnabled());
+        assertNull(Tracing.INSTANCE.deliveryStarted());
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+        throw new AssertionError("No " + name + " event");
+    }
+}
@@ -0,0 +1,485 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+import patternbuilder.core.Communication;
+import patternbuilder.core.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InMemoryCommunicationTest {
+    private static final int MEMORY_BUFFER_SIZE = 64; // bytes
+
+    @Test
+    public void deliversSynchronouslyByDefault() throws Exception {
+        List<byte[]> delivered = new ArrayList<>();
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(delivered::add);
+        InMemoryCommunication communication = builder.build();
+        communication.send(new byte[]{1, 2});
+        communication.close();
+
+        assertEquals(1, delivered.size());
+        assertArrayEquals(new byte[]{1, 2}, delivered.get(0));
+    }
+
+    @Test
+    public void deliversAsynchronouslyInPublishOrderPerProducer() throws Exception {
+        int producers = 4;
+        int messagesPerProducer = 50_000;
+        int[] lastSeen = new int[producers];
+        CountDownLatch done = new CountDownLatch(producers * messagesPerProducer);
+        List<String> errors = new ArrayList<>();
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .ringSize(100) // rounded up to 128
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(bytes -> {
+                    ByteBuffer message = ByteBuffer.wrap(bytes);
+                    int producer = message.getInt();
+                    int value = message.getInt();
+                    if (value != lastSeen[producer] + 1) {
+                        errors.add("producer " + producer + ": " + value + " after " + lastSeen[producer]);
+                    }
+                    lastSeen[producer] = value;
+                    done.countDown();
+                });
+        InMemoryCommunication communication = builder.build();
+        assertTrue(communication.isAsynchronous());
+        assertEquals(128, communication.getRingSize());
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                ByteBuffer message = ByteBuffer.allocate(8);
+                for (int i = 1; i <= messagesPerProducer; i++) {
+                    message.clear();
+                    message.putInt(producer).putInt(i);
+                    try {
+                        communication.send(message.array());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void deliversSlicesWithoutCopying() throws Exception {
+        List<Integer> lengths = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(new Communication.Consumer() {
+                    @Override
+                    public void handleDelivery(byte[] bytes) {
+                        throw new AssertionError("slice expected");
+                    }
+
+                    @Override
+                    public void handleDelivery(byte[] bytes, int offset, int length) {
+                        assertEquals(MEMORY_BUFFER_SIZE, bytes.length); // the ring slot itself
+                        lengths.add(length);
+                        done.countDown();
+                    }
+                });
+        InMemoryCommunication communication = builder.build();
+        communication.send(new byte[]{0, 1, 2, 3}, 1, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        communication.send(direct);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+
+        assertEquals(Arrays.asList(2, 3), lengths);
+        assertEquals(0, direct.remaining());
+    }
+
+    @Test
+    public void defaultConsumerAdapterCopiesSlice() throws Exception {
+        List<byte[]> delivered = new ArrayList<>();
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(delivered::add);
+        InMemoryCommunication communication = builder.build();
+        communication.send(new byte[]{0, 1, 2, 3}, 1, 2);
+        communication.send(ByteBuffer.wrap(new byte[]{4, 5}));
+        communication.close();
+
+        assertArrayEquals(new byte[]{1, 2}, delivered.get(0));
+        assertArrayEquals(new byte[]{4, 5}, delivered.get(1));
+    }
+
+    @Test
+    public void boundsAsyncSendsInFlight() throws Exception {
+        CountDownLatch consumerReleased = new CountDownLatch(1);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .maxInFlight(2)
+                .consumer(bytes -> {
+                    try {
+                        consumerReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        InMemoryCommunication communication = builder.build();
+        assertEquals(2, communication.getMaxInFlight());
+        CompletableFuture<Void> first = communication.sendAsync(new byte[1]);
+        CompletableFuture<Void> second = communication.sendAsync(new byte[1]);
+        CompletableFuture<CompletableFuture<Void>> third =
+                CompletableFuture.supplyAsync(() -> communication.sendAsync(new byte[1]));
+        Thread.sleep(100);
+        assertFalse(first.isDone());
+        assertFalse(third.isDone()); // waits for a permit
+
+        consumerReleased.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        third.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+        communication.close();
+    }
+
+    @Test
+    public void broadcastsEveryMessageToEveryConsumer() throws Exception {
+        int messages = 10_000;
+        CountingConsumer pricing = new CountingConsumer();
+        CountingConsumer risk = new CountingConsumer();
+        CountingConsumer audit = new CountingConsumer();
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.addConsumer(risk)
+                .asynchronous(true)
+                .ringSize(64)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(pricing);
+        InMemoryCommunication communication = builder.build();
+        communication.addConsumer(audit);
+        assertEquals(Arrays.asList(pricing, risk, audit), communication.getConsumers());
+
+        ByteBuffer message = ByteBuffer.allocate(4);
+        for (int i = 0; i < messages; i++) {
+            message.putInt(0, i);
+            communication.send(message.array());
+        }
+        communication.sendAsync(new byte[0]).get(10, TimeUnit.SECONDS); // delivered to all of them
+        communication.close();
+
+        for (CountingConsumer consumer : Arrays.asList(pricing, risk, audit)) {
+            assertEquals(messages + 1, consumer.count);
+            assertTrue(consumer.inOrder);
+        }
+    }
+
+    @Test
+    public void removedConsumerStopsGatingProducers() throws Exception {
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountingConsumer fast = new CountingConsumer();
+        Communication.Consumer stuck = bytes -> {
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .ringSize(8)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(fast);
+        InMemoryCommunication communication = builder.build();
+        communication.addConsumer(stuck);
+        for (int i = 0; i < 8; i++) {
+            communication.send(new byte[0]); // fills the ring, the stuck consumer holds all slots
+        }
+        CompletableFuture<Void> removal = CompletableFuture.runAsync(() -> {
+            try {
+                communication.removeConsumer(stuck);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        unblock.countDown(); // removal waits for the stuck consumer to drain what it already has
+        removal.get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            communication.send(new byte[0]);
+        }
+        communication.close();
+        assertEquals(108, fast.count);
+        assertEquals(Collections.singletonList(fast), communication.getConsumers());
+    }
+
+    @Test
+    public void recordsMetrics() throws Exception {
+        CountDownLatch done = new CountDownLatch(10);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .metrics(true)
+                .consumer(bytes -> done.countDown());
+        InMemoryCommunication communication = builder.build();
+        for (int i = 0; i < 10; i++) {
+            communication.send(new byte[i]);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+
+        Metrics metrics = communication.metrics();
+        assertEquals(10, metrics.getMessagesSent());
+        assertEquals(45, metrics.getBytesSent());
+        assertEquals(10, metrics.getSendLatency().getCount());
+        assertEquals(10, metrics.getMessagesDelivered());
+        assertEquals(45, metrics.getBytesDelivered());
+        assertEquals(10, metrics.getDispatchTime().getCount());
+        assertEquals(0, metrics.getQueueDepth());
+        assertNull(new InMemoryCommunication.Builder().build().metrics());
+    }
+
+    @Test
+    public void countsFailedDeliveriesWithoutFuture() throws Exception {
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(bytes -> {
+                    throw new IllegalStateException("rejected");
+                });
+        InMemoryCommunication communication = builder.build();
+        communication.send(new byte[]{1});
+        communication.send(new byte[]{2});
+        CompletableFuture<Void> future = communication.sendAsync(new byte[]{3});
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+        }
+        assertEquals(2, communication.getFailedDeliveryCount());
+        communication.close();
+    }
+
+    @Test
+    public void dispatchesToConsumerThreadInOrder() throws Exception {
+        int count = 1000;
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(count);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .dispatch(Dispatch.VIRTUAL_THREAD_PER_CONSUMER)
+                .consumer(bytes -> {
+                    delivered.add(ByteBuffer.wrap(bytes).getInt());
+                    threads.add(Thread.currentThread());
+                    done.countDown();
+                });
+        InMemoryCommunication communication = builder.build();
+        ByteBuffer message = ByteBuffer.allocate(4);
+        for (int i = 0; i < count; i++) {
+            message.clear();
+            communication.send(message.putInt(0, i)); // the same buffer every time, the dispatch copies
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, delivered.get(i).intValue());
+        }
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void dispatchesMessagesConcurrently() throws Exception {
+        int count = VirtualThreads.available() ? 10 : Math.min(10, VirtualThreads.fallbackThreads());
+        CyclicBarrier allBlocked = new CyclicBarrier(count); // only passes if every delivery runs at once
+        CountDownLatch done = new CountDownLatch(count);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .dispatch(Dispatch.VIRTUAL_THREAD_PER_MESSAGE)
+                .consumer(bytes -> {
+                    try {
+                        allBlocked.await(10, TimeUnit.SECONDS);
+                        done.countDown();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+        InMemoryCommunication communication = builder.build();
+        for (int i = 0; i < count; i++) {
+            communication.send(new byte[]{(byte) i});
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+    }
+
+    @Test
+    public void deliversWithEveryWaitStrategy() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            int count = 10_000;
+            CountDownLatch done = new CountDownLatch(2 * count);
+            InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+            builder.asynchronous(true)
+                    .ringSize(16)
+                    .waitStrategy(waitStrategy)
+                    .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                    .addConsumer(bytes -> done.countDown())
+                    .consumer(bytes -> done.countDown());
+            InMemoryCommunication communication = builder.build();
+            for (int i = 0; i < count; i++) {
+                communication.send(new byte[]{(byte) i});
+                if (i % 1000 == 0) {
+                    Thread.sleep(1); // lets the dispatchers go idle now and then
+                }
+            }
+            assertTrue(waitStrategy.name(), done.await(10, TimeUnit.SECONDS));
+            communication.close();
+        }
+    }
+
+    @Test
+    public void dropsNewestWhenRingIsFull() throws Exception {
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.overflowPolicy(OverflowPolicy.DROP_NEWEST);
+        assertEquals(Arrays.asList(0, 1, 2, 3), deliveredAfterBurst(builder, 6));
+    }
+
+    @Test
+    public void dropsOldestQueuedWhenOverflowIsFull() throws Exception {
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.overflowPolicy(OverflowPolicy.DROP_OLDEST).overflowSize(2);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 8, 9), deliveredAfterBurst(builder, 4));
+    }
+
+    @Test
+    public void conflatesQueuedMessagesByKey() throws Exception {
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.overflowPolicy(OverflowPolicy.CONFLATE).conflationKey(bytes -> bytes[0] % 3);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 7, 8, 9), deliveredAfterBurst(builder, 3));
+        assertNull(new InMemoryCommunication.Builder().overflowPolicy(OverflowPolicy.CONFLATE).build());
+    }
+
+    @Test(timeout = 10_000)
+    public void closeDropsWhatAStuckConsumerHoldsUp() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .ringSize(4)
+                .overflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .overflowSize(10)
+                .closeTimeoutMillis(100)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(bytes -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        InMemoryCommunication communication = builder.build();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(communication.sendAsync(new byte[]{(byte) i}));
+        }
+        communication.close();
+        assertEquals(4, communication.getDroppedMessageCount());
+        for (CompletableFuture<Void> queued : futures.subList(4, 8)) {
+            assertTrue(queued.isCompletedExceptionally());
+        }
+        release.countDown();
+    }
+
+    @Test
+    public void blocksUntilRingHasRoom() throws Exception {
+        int count = 10_000;
+        CountDownLatch done = new CountDownLatch(count);
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true)
+                .ringSize(4)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(bytes -> done.countDown());
+        InMemoryCommunication communication = builder.build();
+        for (int i = 0; i < count; i++) {
+            communication.send(new byte[]{(byte) i});
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+        assertEquals(0, communication.getDroppedMessageCount());
+    }
+
+    /**
+     * Sends messages {@code 0..9} to a ring of 4 slots while the consumer is stuck on the first one.
+     */
+    private static List<Integer> deliveredAfterBurst(InMemoryCommunication.Builder builder, int expectedDrops)
+            throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        builder.asynchronous(true)
+                .ringSize(4)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE)
+                .consumer(bytes -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    delivered.add((int) bytes[0]);
+                });
+        InMemoryCommunication communication = builder.build();
+        for (int i = 0; i < 10; i++) {
+            communication.send(new byte[]{(byte) i});
+        }
+        assertEquals(expectedDrops, communication.getDroppedMessageCount());
+        release.countDown();
+        communication.close();
+        return delivered;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTooBigMessage() throws Exception {
+        InMemoryCommunication.Builder builder = new InMemoryCommunication.Builder();
+        builder.asynchronous(true).memoryBufferSize(MEMORY_BUFFER_SIZE).consumer(bytes -> {
+        });
+        InMemoryCommunication communication = builder.build();
+        try {
+            communication.send(new byte[MEMORY_BUFFER_SIZE + 1]);
+        } finally {
+            communication.close();
+        }
+    }
+
+    private static class CountingConsumer implements Communication.Consumer {
+        volatile int count;
+        volatile boolean inOrder = true;
+
+        @Override
+        public void handleDelivery(byte[] bytes) {
+            if (bytes.length == 4 && ByteBuffer.wrap(bytes).getInt() != count) {
+                inOrder = false;
+            }
+            count++;
+        }
+    }
+}
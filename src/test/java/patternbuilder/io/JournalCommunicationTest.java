@@ -0,0 +1,142 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JournalCommunicationTest {
+
+    @Test
+    public void journalsAndDeliversAcrossSegments() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        List<byte[]> delivered = new ArrayList<>();
+        JournalCommunication.Builder builder = new JournalCommunication.Builder();
+        builder.directory(directory)
+                .segmentSize(256)
+                .consumer(delivered::add);
+        JournalCommunication journal = builder.build();
+        for (int i = 0; i < 20; i++) {
+            journal.send(new byte[]{(byte) i, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        }
+        journal.close();
+
+        assertEquals(20, journal.getNextSequence());
+        assertEquals(20, delivered.size());
+        assertArrayEquals(new byte[]{19, 1, 2, 3, 4, 5, 6, 7, 8, 9}, delivered.get(19));
+        List<Path> segments = JournalSegment.list(directory);
+        assertEquals(4, segments.size()); // 6 records of 32 bytes per segment
+        assertEquals(JournalSegment.fileName(6), segments.get(1).getFileName().toString());
+        delete(directory);
+    }
+
+    @Test
+    public void continuesAfterTornRecord() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        JournalCommunication.Builder builder = new JournalCommunication.Builder();
+        builder.directory(directory).segmentSize(4096);
+        JournalCommunication journal = builder.build();
+        for (int i = 0; i < 3; i++) {
+            journal.send(ByteBuffer.wrap(new byte[]{(byte) i}));
+        }
+        journal.close();
+        Path segment = JournalSegment.list(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            int lastPayload = JournalSegment.SEGMENT_HEADER_SIZE + 2 * JournalSegment.recordSize(1)
+                    + JournalSegment.RECORD_HEADER_SIZE;
+            channel.write(ByteBuffer.wrap(new byte[]{42}), lastPayload); // fails the checksum
+        }
+
+        List<byte[]> delivered = new ArrayList<>();
+        builder.consumer(delivered::add);
+        journal = builder.build();
+        assertEquals(2, journal.getNextSequence());
+        journal.send(new byte[]{7});
+        journal.close();
+        assertEquals(3, journal.getNextSequence());
+        assertArrayEquals(new byte[]{7}, delivered.get(0));
+        delete(directory);
+    }
+
+    @Test
+    public void replaysFromSequence() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        JournalCommunication.Builder builder = new JournalCommunication.Builder();
+        builder.directory(directory).segmentSize(16 * 1024); // several segments with several index entries each
+        JournalCommunication journal = builder.build();
+        ByteBuffer message = ByteBuffer.allocate(100);
+        for (int i = 0; i < 1000; i++) {
+            message.clear();
+            journal.send(message.putInt(0, i));
+        }
+
+        List<Integer> replayed = new ArrayList<>();
+        assertEquals(1000, journal.replay(500, bytes -> replayed.add(ByteBuffer.wrap(bytes).getInt())));
+        assertEquals(500, replayed.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(500 + i, replayed.get(i).intValue());
+        }
+        replayed.clear();
+        assertEquals(1000, journal.replay(0, bytes -> replayed.add(ByteBuffer.wrap(bytes).getInt())));
+        assertEquals(1000, replayed.size());
+        assertEquals(999, replayed.get(999).intValue());
+        journal.close();
+        delete(directory);
+    }
+
+    @Test
+    public void findsSequenceByTimestamp() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        JournalCommunication.Builder builder = new JournalCommunication.Builder();
+        builder.directory(directory).segmentSize(16 * 1024);
+        JournalCommunication journal = builder.build();
+        for (int i = 0; i < 300; i++) {
+            journal.send(new byte[100]);
+        }
+        Thread.sleep(5);
+        long mark = System.currentTimeMillis();
+        for (int i = 0; i < 300; i++) {
+            journal.send(new byte[100]);
+        }
+
+        assertEquals(300, journal.findSequence(mark));
+        assertEquals(0, journal.findSequence(0));
+        assertEquals(600, journal.findSequence(Long.MAX_VALUE));
+        journal.close();
+        delete(directory);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTooBigMessage() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        JournalCommunication.Builder builder = new JournalCommunication.Builder();
+        builder.directory(directory).segmentSize(256);
+        JournalCommunication journal = builder.build();
+        try {
+            journal.send(new byte[journal.getMaxMessageSize() + 1]);
+        } finally {
+            journal.close();
+            delete(directory);
+        }
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
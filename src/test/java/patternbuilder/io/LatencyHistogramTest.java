@@ -0,0 +1,32 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheWholeRangeWithinAnEighth() {
+        long[] values = {0, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(value + " -> " + highest, highest >= value && highest - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void reportsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.1);
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(String.valueOf(median), median >= 500_000 && median <= 500_000 * 9 / 8);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+    }
+}
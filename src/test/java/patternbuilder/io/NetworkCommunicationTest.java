@@ -0,0 +1,538 @@
+package patternbuilder.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworkCommunicationTest {
+    private static final String HOST = "127.0.0.1";
+
+    private ServerSocketChannel server;
+    private NetworkCommunication communication;
+    private SocketChannel peer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(HOST, 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (communication != null) {
+            communication.close();
+        }
+        if (peer != null) {
+            peer.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void sendsLengthPrefixedFrames() throws Exception {
+        communication = connect(new NetworkCommunication.Builder());
+        DataInputStream in = acceptPeer();
+
+        communication.send(new byte[]{1, 2, 3});
+        communication.send(new byte[0]);
+
+        assertArrayEquals(new byte[]{1, 2, 3}, readFrame(in));
+        assertArrayEquals(new byte[0], readFrame(in));
+    }
+
+    @Test
+    public void sendsSlicesAndByteBuffers() throws Exception {
+        communication = connect(new NetworkCommunication.Builder());
+        DataInputStream in = acceptPeer();
+
+        communication.send(new byte[]{9, 1, 2, 9}, 1, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        direct.put(new byte[]{3, 4, 5}).flip();
+        communication.send(direct);
+
+        assertArrayEquals(new byte[]{1, 2}, readFrame(in));
+        assertArrayEquals(new byte[]{3, 4, 5}, readFrame(in));
+        assertEquals(0, direct.remaining());
+    }
+
+    @Test
+    public void sendsBatches() throws Exception {
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.sendBufferSize(64);
+        communication = connect(builder);
+        DataInputStream in = acceptPeer();
+
+        byte[][] arrays = new byte[100][];
+        ByteBuffer[] buffers = new ByteBuffer[600]; // more than one gathering write
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new byte[]{(byte) i, (byte) i};
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(i % 3);
+            while (buffers[i].hasRemaining()) {
+                buffers[i].put((byte) i);
+            }
+            buffers[i].flip();
+        }
+        communication.sendBatch(arrays);
+        communication.sendBatch(buffers);
+
+        for (byte[] array : arrays) {
+            assertArrayEquals(array, readFrame(in));
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            byte[] frame = readFrame(in);
+            assertEquals(i % 3, frame.length);
+            for (byte b : frame) {
+                assertEquals((byte) i, b);
+            }
+            assertEquals(0, buffers[i].remaining());
+        }
+    }
+
+    @Test
+    public void coalescesFramesUntilFlush() throws Exception {
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.sendBufferSize(64).autoFlush(false);
+        communication = connect(builder);
+        DataInputStream in = acceptPeer();
+
+        for (int i = 0; i < 100; i++) {
+            communication.send(new byte[]{(byte) i});
+        }
+        byte[] big = new byte[1000]; // larger than the send buffer
+        big[999] = 42;
+        communication.send(big);
+        communication.flush();
+
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, readFrame(in));
+        }
+        assertArrayEquals(big, readFrame(in));
+    }
+
+    @Test
+    public void sharesEventLoopsBetweenCommunications() throws Exception {
+        int count = 20;
+        NetworkCommunication[] communications = new NetworkCommunication[count];
+        SocketChannel[] peers = new SocketChannel[count];
+        try (EventLoopGroup group = new EventLoopGroup(2)) {
+            for (int i = 0; i < count; i++) {
+                NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+                builder.eventLoopGroup(group);
+                communications[i] = connect(builder);
+                assertTrue(communications[i].isEventLoopDriven());
+                peers[i] = server.accept();
+            }
+            for (int i = 0; i < count; i++) {
+                communications[i].send(new byte[]{(byte) i});
+            }
+            for (int i = 0; i < count; i++) {
+                DataInputStream in = new DataInputStream(peers[i].socket().getInputStream());
+                assertArrayEquals(new byte[]{(byte) i}, readFrame(in));
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                if (communications[i] != null) {
+                    communications[i].close();
+                }
+                if (peers[i] != null) {
+                    peers[i].close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void eventLoopDrainsWhenSocketIsBackedUp() throws Exception {
+        int messages = 20_000;
+        try (EventLoopGroup group = new EventLoopGroup(1)) {
+            NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+            builder.sendBufferSize(512).eventLoopGroup(group);
+            communication = connect(builder);
+            DataInputStream in = acceptPeer();
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> sender = executor.submit(() -> {
+                    byte[] message = new byte[100];
+                    for (int i = 0; i < messages; i++) {
+                        message[0] = (byte) i;
+                        communication.send(message);
+                    }
+                    communication.flush();
+                    return null;
+                });
+                for (int i = 0; i < messages; i++) {
+                    byte[] frame = readFrame(in);
+                    assertEquals(100, frame.length);
+                    assertEquals((byte) i, frame[0]);
+                }
+                sender.get(10, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void replyingOnEventLoopDoesNotStallOtherConnections() throws Exception {
+        int replies = 8;
+        byte[] reply = new byte[1024 * 1024]; // together more than the socket buffers hold
+        CountDownLatch otherReceived = new CountDownLatch(1);
+        try (EventLoopGroup group = new EventLoopGroup(1)) {
+            NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+            builder.eventLoopGroup(group)
+                    .consumer(bytes -> {
+                        try {
+                            for (int i = 0; i < replies; i++) {
+                                reply[0] = (byte) i;
+                                communication.send(reply); // the peer is not reading yet
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+            communication = connect(builder);
+            DataInputStream in = acceptPeer();
+            NetworkCommunication.Builder otherBuilder = new NetworkCommunication.Builder();
+            otherBuilder.eventLoopGroup(group).consumer(bytes -> otherReceived.countDown());
+            NetworkCommunication other = connect(otherBuilder);
+            try (SocketChannel otherPeer = server.accept()) {
+                peer.write(ByteBuffer.allocate(5).putInt(1).put((byte) 1).flip());
+                Thread.sleep(100);
+                otherPeer.write(ByteBuffer.allocate(5).putInt(1).put((byte) 2).flip());
+                assertTrue(otherReceived.await(2, TimeUnit.SECONDS));
+            } finally {
+                other.close();
+            }
+            for (int i = 0; i < replies; i++) {
+                byte[] frame = readFrame(in);
+                assertEquals(reply.length, frame.length);
+                assertEquals((byte) i, frame[0]);
+            }
+        }
+    }
+
+    @Test
+    public void smartBatchingLeavesWritesToEventLoop() throws Exception {
+        int messages = 20_000;
+        try (EventLoopGroup group = new EventLoopGroup(1)) {
+            NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+            builder.smartBatching(true).eventLoopGroup(group).maxInFlight(64);
+            communication = connect(builder);
+            assertTrue(communication.isSmartBatching());
+            DataInputStream in = acceptPeer();
+
+            byte[] message = new byte[8];
+            for (int i = 0; i < messages; i++) {
+                message[0] = (byte) i;
+                communication.send(message);
+            }
+            communication.sendAsync(new byte[]{1}).get(10, TimeUnit.SECONDS); // written by the loop
+            for (int i = 0; i < messages; i++) {
+                assertEquals((byte) i, readFrame(in)[0]);
+            }
+            assertArrayEquals(new byte[]{1}, readFrame(in));
+        }
+    }
+
+    @Test
+    public void rejectsSmartBatchingWithoutEventLoop() {
+        assertNull(connect(new NetworkCommunication.Builder().smartBatching(true)));
+        assertNull(connect(new TextBasedCommunication.Builder().smartBatching(true)));
+    }
+
+    @Test
+    public void compressesFramesBothWays() throws Exception {
+        Compression compression = new Compression.Builder().threshold(16).build();
+        List<byte[]> received = new ArrayList<>();
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.compression(compression).consumer(received::add);
+        communication = connect(builder);
+        DataInputStream in = acceptPeer();
+
+        byte[] repetitive = new byte[1000];
+        communication.send(repetitive);
+        communication.sendBatch(ByteBuffer.wrap(new byte[]{1}));
+        byte[] frame = readFrame(in);
+        assertTrue(frame.length < 100);
+        Compression.Codec codec = compression.codec();
+        assertArrayEquals(repetitive, toArray(codec.decompress(ByteBuffer.wrap(frame))));
+        assertArrayEquals(new byte[]{1}, toArray(codec.decompress(ByteBuffer.wrap(readFrame(in)))));
+
+        ByteBuffer message = codec.compress(repetitive, 0, repetitive.length);
+        ByteBuffer echo = ByteBuffer.allocate(4 + message.remaining());
+        echo.putInt(message.remaining()).put(message).flip();
+        peer.write(echo);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            communication.receive();
+        }
+        assertArrayEquals(repetitive, received.get(0));
+    }
+
+    @Test
+    public void completesAsyncSendOnceWritten() throws Exception {
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.autoFlush(false).maxInFlight(16);
+        communication = connect(builder);
+        DataInputStream in = acceptPeer();
+
+        CompletableFuture<Void> sent = communication.sendAsync(new byte[]{7});
+        assertFalse(sent.isDone());
+        communication.flush();
+        sent.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(new byte[]{7}, readFrame(in));
+    }
+
+    @Test(timeout = 10_000)
+    public void flushesWhenInFlightWindowIsFull() throws Exception {
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.autoFlush(false).maxInFlight(2);
+        communication = connect(builder);
+        DataInputStream in = acceptPeer();
+
+        CompletableFuture<Void> first = communication.sendAsync(new byte[]{1});
+        communication.sendAsync(new byte[]{2});
+        CompletableFuture<Void> third = communication.sendAsync(new byte[]{3}); // the first two get flushed
+        assertTrue(first.isDone());
+        assertFalse(third.isDone());
+        communication.flush();
+        third.get(10, TimeUnit.SECONDS);
+        for (int i = 1; i <= 3; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, readFrame(in));
+        }
+    }
+
+    @Test
+    public void sendsEncodedText() throws Exception {
+        TextBasedCommunication.Builder builder = new TextBasedCommunication.Builder();
+        builder.charset(StandardCharsets.UTF_8);
+        communication = connect(builder);
+        DataInputStream in = acceptPeer();
+        TextBasedCommunication text = (TextBasedCommunication) communication;
+
+        StringBuilder message = new StringBuilder("price=");
+        text.send(message.append(42));
+        text.send("caf\u00e9");
+
+        assertArrayEquals("price=42".getBytes(StandardCharsets.UTF_8), readFrame(in));
+        assertArrayEquals("caf\u00e9".getBytes(StandardCharsets.UTF_8), readFrame(in));
+    }
+
+    @Test
+    public void returnsPooledBuffersOnClose() throws Exception {
+        BufferPool pool = new BufferPool.Builder().build();
+        for (int i = 0; i < 5; i++) {
+            TextBasedCommunication.Builder builder = new TextBasedCommunication.Builder();
+            builder.charset(StandardCharsets.UTF_8).bufferPool(pool);
+            connect(builder).close();
+        }
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test(timeout = 10_000)
+    public void closeGivesUpOnPeerThatStopsReading() throws Exception {
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.lingerMillis(200);
+        communication = connect(builder);
+        acceptPeer(); // never read
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> sending = sender.submit(() -> {
+                byte[] chunk = new byte[64 * 1024];
+                while (true) {
+                    communication.send(chunk); // blocks for good once the socket buffers are full
+                }
+            });
+            Thread.sleep(500);
+            communication.close();
+            try {
+                sending.get();
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof ClosedChannelException);
+            }
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leavesReturnedBufferAloneWhenSendingAfterClose() throws Exception {
+        BufferPool pool = new BufferPool.Builder().direct(true).build();
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.sendBufferSize(1024).bufferPool(pool);
+        NetworkCommunication closed = connect(builder);
+        closed.close();
+        PooledBuffer leased = pool.lease(1024); // the buffer the connection returned
+        try {
+            closed.send(new byte[]{1, 2, 3});
+            fail();
+        } catch (ClosedChannelException expected) {
+        }
+        assertEquals(0, leased.buffer().position());
+        assertEquals(0, leased.buffer().getInt(0));
+        leased.release();
+    }
+
+    @Test
+    public void receivesFramesSplitAcrossReads() throws Exception {
+        List<byte[]> received = new ArrayList<>();
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.receiveBufferSize(16).consumer(received::add);
+        communication = connect(builder);
+        acceptPeer();
+
+        ByteBuffer frames = ByteBuffer.allocate(1024);
+        frames.putInt(2).put(new byte[]{1, 2}).putInt(0).putInt(100).put(new byte[100]).putInt(1).put((byte) 3);
+        frames.flip();
+        while (frames.hasRemaining()) { // 5 bytes at a time, cutting through headers and payloads
+            ByteBuffer chunk = frames.duplicate();
+            chunk.limit(Math.min(frames.limit(), frames.position() + 5));
+            peer.write(chunk);
+            frames.position(chunk.position());
+            Thread.sleep(1);
+            communication.receive();
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.size() < 4 && System.currentTimeMillis() < deadline) {
+            communication.receive();
+        }
+
+        assertEquals(4, received.size());
+        assertArrayEquals(new byte[]{1, 2}, received.get(0));
+        assertArrayEquals(new byte[0], received.get(1));
+        assertArrayEquals(new byte[100], received.get(2));
+        assertArrayEquals(new byte[]{3}, received.get(3));
+        assertTrue(communication.getReceiveBufferSize() >= 104);
+        peer.close();
+        while (communication.receive() >= 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void closesConnectionOnOversizedFrame() throws Exception {
+        List<byte[]> received = new ArrayList<>();
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.maxFrameSize(100).consumer(received::add);
+        communication = connect(builder);
+        acceptPeer();
+
+        peer.write(ByteBuffer.allocate(12).putInt(0).putInt(Integer.MAX_VALUE).putInt(0).flip());
+        long deadline = System.currentTimeMillis() + 10_000;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                communication.receive();
+            }
+            fail("oversized frame accepted");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, received.size());
+        assertFalse(communication.getChannel().isOpen());
+        assertEquals(0, communication.getReceiveBufferSize());
+    }
+
+    @Test
+    public void closesConnectionWhenConsumerThrows() throws Exception {
+        IllegalStateException failure = new IllegalStateException("rejected");
+        NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+        builder.consumer(bytes -> {
+            throw failure;
+        });
+        communication = connect(builder);
+        acceptPeer();
+
+        peer.write(ByteBuffer.allocate(5).putInt(1).put((byte) 1).flip());
+        long deadline = System.currentTimeMillis() + 10_000;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                communication.receive();
+            }
+            fail("failure swallowed");
+        } catch (IOException expected) {
+            assertSame(failure, expected.getCause());
+        }
+        assertFalse(communication.getChannel().isOpen());
+    }
+
+    @Test
+    public void eventLoopDeliversReceivedFrames() throws Exception {
+        int messages = 1000;
+        CountDownLatch done = new CountDownLatch(messages);
+        try (EventLoopGroup group = new EventLoopGroup(1)) {
+            NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+            builder.eventLoopGroup(group)
+                    .consumer(bytes -> {
+                        if (bytes.length == 1 && bytes[0] == (byte) (messages - done.getCount())) {
+                            done.countDown();
+                        }
+                    });
+            communication = connect(builder);
+            acceptPeer();
+            ByteBuffer frame = ByteBuffer.allocate(5);
+            for (int i = 0; i < messages; i++) {
+                frame.clear();
+                frame.putInt(1).put((byte) i).flip();
+                while (frame.hasRemaining()) {
+                    peer.write(frame);
+                }
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            communication.close();
+        }
+    }
+
+    private NetworkCommunication connect(NetworkCommunication.Builder builder) {
+        builder.remoteHost(HOST)
+                .remotePort(server.socket().getLocalPort())
+                .host(HOST)
+                .port(0)
+                .name("NetworkCommunicationTest");
+        return builder.build();
+    }
+
+    private DataInputStream acceptPeer() throws Exception {
+        peer = server.accept();
+        return new DataInputStream(peer.socket().getInputStream());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws Exception {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        return frame;
+    }
+}
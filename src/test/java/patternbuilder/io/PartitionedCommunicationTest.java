@@ -0,0 +1,155 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedCommunicationTest {
+    private static final int MEMORY_BUFFER_SIZE = 64; // bytes
+
+    @Test
+    public void deliversInOrderPerKeyAcrossPartitions() throws Exception {
+        int keys = 16;
+        int messagesPerKey = 10_000;
+        int[] lastSeen = new int[keys];
+        CountDownLatch done = new CountDownLatch(keys * messagesPerKey);
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        Set<Thread> consumerThreads = ConcurrentHashMap.newKeySet();
+        InMemoryCommunication.Builder prototype = new InMemoryCommunication.Builder();
+        prototype.asynchronous(true)
+                .memoryBufferSize(MEMORY_BUFFER_SIZE);
+        PartitionedCommunication.Builder builder = new PartitionedCommunication.Builder();
+        builder.prototype(prototype)
+                .partitions(4)
+                .metrics(true)
+                .consumer(bytes -> {
+                    ByteBuffer message = ByteBuffer.wrap(bytes);
+                    int key = message.getInt();
+                    int value = message.getInt();
+                    synchronized (lastSeen) { // keys of a partition are seen by one thread only
+                        if (value != lastSeen[key] + 1) {
+                            errors.add("key " + key + ": " + value + " after " + lastSeen[key]);
+                        }
+                        lastSeen[key] = value;
+                    }
+                    consumerThreads.add(Thread.currentThread());
+                    done.countDown();
+                })
+                .name("partitioned");
+        PartitionedCommunication communication = builder.build();
+        for (int value = 1; value <= messagesPerKey; value++) {
+            for (int key = 0; key < keys; key++) {
+                communication.send(key, ByteBuffer.allocate(8).putInt(key).putInt(value).array());
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        communication.close();
+        assertEquals(Collections.emptyList(), errors);
+        assertTrue(consumerThreads.size() > 1);
+        assertEquals(keys * messagesPerKey, communication.metrics().getMessagesDelivered());
+        assertEquals("partitioned-3", communication.getPartitions().get(3).getName());
+    }
+
+    @Test
+    public void routesEqualKeysToTheSamePartition() throws Exception {
+        int[] counts = new int[8];
+        for (int key = 0; key < 8_000; key++) {
+            int index = PartitionedCommunication.index(key << 16, counts.length); // differ in high bits only
+            assertEquals(index, PartitionedCommunication.index(key << 16, counts.length));
+            counts[index]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 500);
+        }
+
+        PartitionedCommunication communication = new PartitionedCommunication.Builder()
+                .prototype(new InMemoryCommunication.Builder())
+                .partitions(3)
+                .build();
+        try {
+            assertSame(communication.partition("key".hashCode()), communication.partition("key".hashCode()));
+        } finally {
+            communication.close();
+        }
+    }
+
+    @Test
+    public void recordsDeliveriesInPartitionsBuiltWithMetrics() throws Exception {
+        AtomicInteger delivered = new AtomicInteger();
+        PartitionedCommunication.Builder builder = new PartitionedCommunication.Builder();
+        builder.prototype(new InMemoryCommunication.Builder().memoryBufferSize(MEMORY_BUFFER_SIZE).metrics(true))
+                .partitions(4)
+                .metrics(true)
+                .consumer(bytes -> delivered.incrementAndGet())
+                .name("partitioned");
+        PartitionedCommunication first = builder.build();
+        PartitionedCommunication second = builder.build();
+        try {
+            for (int i = 0; i < 8; i++) {
+                second.send(new byte[]{(byte) i}); // one producer, still spread over every partition
+            }
+            second.sendAsync(3, new byte[]{3}).get(1, TimeUnit.SECONDS);
+
+            assertEquals(9, delivered.get());
+            assertEquals(9, second.metrics().getMessagesSent());
+            assertEquals(9, second.metrics().getMessagesDelivered());
+            long deliveredByPartitions = 0;
+            for (MinimalCommunication partition : second.getPartitions()) {
+                assertTrue(partition.metrics().getMessagesDelivered() >= 2);
+                deliveredByPartitions += partition.metrics().getMessagesDelivered();
+            }
+            assertEquals(9, deliveredByPartitions);
+            assertEquals(0, first.metrics().getMessagesDelivered());
+            for (MinimalCommunication partition : first.getPartitions()) {
+                assertEquals(0, partition.metrics().getMessagesDelivered());
+            }
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void keepsKeylessMessagesOfAThreadTogetherWithStickyRouting() throws Exception {
+        PartitionedCommunication communication = new PartitionedCommunication.Builder()
+                .prototype(new InMemoryCommunication.Builder().memoryBufferSize(MEMORY_BUFFER_SIZE).metrics(true))
+                .partitions(4)
+                .stickyRouting(true)
+                .build();
+        try {
+            for (int i = 0; i < 8; i++) {
+                communication.send(new byte[]{(byte) i});
+            }
+            int used = 0;
+            for (MinimalCommunication partition : communication.getPartitions()) {
+                used += partition.metrics().getMessagesSent() > 0 ? 1 : 0;
+            }
+            assertEquals(1, used);
+        } finally {
+            communication.close();
+        }
+    }
+
+    @Test
+    public void failsWhenAPartitionCannotBeBuilt() {
+        PartitionedCommunication.Builder builder = new PartitionedCommunication.Builder();
+        builder.prototype(new SharedMemoryCommunication.Builder()) // lacks a file
+                .partitions(2);
+        assertNull(builder.build());
+        assertNull(new PartitionedCommunication.Builder().build());
+    }
+}
@@ -0,0 +1,125 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class ServerCommunicationTest {
+    private static final String HOST = "127.0.0.1";
+    private static final int CLIENTS = 3;
+
+    @Test
+    public void exchangesMessagesWithManyClients() throws Exception {
+        CountDownLatch serverReceived = new CountDownLatch(CLIENTS);
+        CountDownLatch clientsReceived = new CountDownLatch(CLIENTS);
+        CountDownLatch connected = new CountDownLatch(CLIENTS);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        try (EventLoopGroup group = new EventLoopGroup(2)) {
+            ServerCommunication.Builder serverBuilder = new ServerCommunication.Builder();
+            serverBuilder.host(HOST)
+                    .eventLoopGroup(group)
+                    .connectionListener(new ServerCommunication.ConnectionListener() {
+                        @Override
+                        public void connectionOpened(NetworkCommunication connection) {
+                            connected.countDown();
+                        }
+
+                        @Override
+                        public void connectionClosed(NetworkCommunication connection) {
+                            disconnected.countDown();
+                        }
+                    })
+                    .consumer(bytes -> {
+                        received.addAndGet(bytes[0]);
+                        serverReceived.countDown();
+                    })
+                    .name("hub");
+            ServerCommunication server = serverBuilder.build();
+
+            NetworkCommunication[] clients = new NetworkCommunication[CLIENTS];
+            for (int i = 0; i < CLIENTS; i++) {
+                NetworkCommunication.Builder builder = new NetworkCommunication.Builder();
+                builder.host(HOST)
+                        .remoteHost(HOST)
+                        .remotePort(server.getLocalPort())
+                        .eventLoopGroup(group)
+                        .consumer(bytes -> clientsReceived.countDown());
+                clients[i] = builder.build();
+                clients[i].send(new byte[]{(byte) (i + 1)});
+            }
+            assertTrue(connected.await(10, TimeUnit.SECONDS));
+            assertTrue(serverReceived.await(10, TimeUnit.SECONDS));
+            assertEquals(6, received.get());
+            assertEquals(CLIENTS, server.getConnections().size());
+
+            server.send(new byte[]{42});
+            assertTrue(clientsReceived.await(10, TimeUnit.SECONDS));
+
+            clients[0].close();
+            assertTrue(disconnected.await(10, TimeUnit.SECONDS));
+            assertEquals(CLIENTS - 1, server.getConnections().size());
+            server.close();
+            for (NetworkCommunication client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void serversSharingLoopsAcceptConcurrently() throws Exception {
+        int connections = 200;
+        CountDownLatch connected = new CountDownLatch(2 * connections);
+        try (EventLoopGroup group = new EventLoopGroup(2)) {
+            ServerCommunication.Builder builder = new ServerCommunication.Builder();
+            builder.host(HOST)
+                    .eventLoopGroup(group)
+                    .connectionListener(connection -> connected.countDown())
+                    .consumer(bytes -> {
+                    });
+            ServerCommunication first = builder.build(); // accepts on one loop, registers connections on both
+            ServerCommunication second = builder.build(); // accepts on the other loop
+            SocketChannel[] clients = new SocketChannel[2 * connections];
+            for (int i = 0; i < clients.length; i++) {
+                ServerCommunication server = i % 2 == 0 ? first : second;
+                clients[i] = SocketChannel.open(new InetSocketAddress(HOST, server.getLocalPort()));
+            }
+            assertTrue(connected.await(20, TimeUnit.SECONDS));
+            first.close();
+            second.close();
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void reusedBuilderLeavesGroupsToTheirServers() throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        ServerCommunication.Builder builder = new ServerCommunication.Builder();
+        builder.host(HOST)
+                .connectionListener(connection -> connected.countDown())
+                .consumer(bytes -> {
+                });
+        ServerCommunication first = builder.build();
+        ServerCommunication second = builder.build();
+        try {
+            assertNotSame(first.getLocalPort(), second.getLocalPort());
+            first.close();
+            SocketChannel client = SocketChannel.open(new InetSocketAddress(HOST, second.getLocalPort()));
+            assertTrue(connected.await(10, TimeUnit.SECONDS));
+            client.close();
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+}
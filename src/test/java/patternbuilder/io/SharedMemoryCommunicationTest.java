@@ -0,0 +1,153 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+import patternbuilder.core.Communication;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SharedMemoryCommunicationTest {
+
+    @Test
+    public void deliversInOrderAcrossWrapAround() throws Exception {
+        Path file = Files.createTempFile("shared-memory", ".ring");
+        Files.delete(file);
+        int messages = 100_000;
+        CountDownLatch done = new CountDownLatch(messages);
+        List<String> errors = new ArrayList<>();
+        SharedMemoryCommunication.Builder receiverBuilder = new SharedMemoryCommunication.Builder();
+        receiverBuilder.file(file)
+                .capacity(1000) // rounded up to 1024
+                .consumer(new Communication.Consumer() {
+                    int expected;
+
+                    @Override
+                    public void handleDelivery(byte[] bytes) {
+                        throw new AssertionError("buffer expected");
+                    }
+
+                    @Override
+                    public void handleDelivery(ByteBuffer buffer) {
+                        int value = buffer.getInt(buffer.position());
+                        if (value != expected || buffer.remaining() != 4 + value % 50) {
+                            errors.add(value + " after " + (expected - 1));
+                        }
+                        expected = value + 1;
+                        done.countDown();
+                    }
+                });
+        SharedMemoryCommunication receiver = receiverBuilder.build();
+        SharedMemoryCommunication.Builder senderBuilder = new SharedMemoryCommunication.Builder();
+        senderBuilder.file(file);
+        SharedMemoryCommunication sender = senderBuilder.build(); // opened like another process would
+        assertEquals(1024, sender.getCapacity());
+
+        ByteBuffer message = ByteBuffer.allocate(64);
+        for (int i = 0; i < messages; i++) {
+            message.clear();
+            message.putInt(i).position(4 + i % 50).flip();
+            sender.send(message);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        sender.close();
+        receiver.close();
+        Files.delete(file);
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void publishesRecordsWithVarHandles() {
+        assertEquals("VarHandleMappedAccess", MappedAccess.INSTANCE.getClass().getSimpleName());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        MappedAccess.INSTANCE.putIntRelease(buffer, 4, 0x01020304);
+        MappedAccess.INSTANCE.putLongRelease(buffer, 8, -2L);
+        assertEquals(0x01020304, buffer.getInt(4));
+        assertEquals(-2L, MappedAccess.INSTANCE.getLongAcquire(buffer, 8));
+        assertEquals(0x01020304, MappedAccess.INSTANCE.getIntAcquire(buffer, 4));
+    }
+
+    @Test
+    public void rejectsForeignFile() throws Exception {
+        Path file = Files.createTempFile("shared-memory", ".txt");
+        Files.write(file, "not a ring".getBytes());
+        SharedMemoryCommunication.Builder builder = new SharedMemoryCommunication.Builder();
+        builder.file(file);
+        assertNull(builder.build());
+        Files.delete(file);
+    }
+
+    @Test
+    public void rejectsBlockingWaitStrategy() {
+        SharedMemoryCommunication.Builder builder = new SharedMemoryCommunication.Builder();
+        builder.file(Paths.get("unused.ring")).waitStrategy(WaitStrategy.BLOCKING);
+        assertNull(builder.build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityAboveMaximum() {
+        SharedMemoryCommunication.Builder builder = new SharedMemoryCommunication.Builder();
+        builder.file(Paths.get("unused.ring")).capacity(SharedMemoryCommunication.MAX_CAPACITY + 1);
+        builder.build();
+    }
+
+    @Test
+    public void opensFileWhileAnotherBuilderCreatesIt() throws Exception {
+        int builders = 8;
+        for (int round = 0; round < 20; round++) {
+            Path file = Files.createTempFile("shared-memory", ".ring");
+            Files.delete(file);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<SharedMemoryCommunication>> results = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(builders);
+            try {
+                for (int i = 0; i < builders; i++) {
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        SharedMemoryCommunication.Builder builder = new SharedMemoryCommunication.Builder();
+                        builder.file(file).capacity(4096);
+                        return builder.build();
+                    }));
+                }
+                start.countDown();
+                for (Future<SharedMemoryCommunication> result : results) {
+                    SharedMemoryCommunication communication = result.get(10, TimeUnit.SECONDS);
+                    assertNotNull(communication);
+                    assertEquals(4096, communication.getCapacity());
+                    communication.close();
+                }
+            } finally {
+                executor.shutdownNow();
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTooBigMessage() throws Exception {
+        Path file = Files.createTempFile("shared-memory", ".ring");
+        Files.delete(file);
+        SharedMemoryCommunication.Builder builder = new SharedMemoryCommunication.Builder();
+        builder.file(file).capacity(64);
+        SharedMemoryCommunication communication = builder.build();
+        try {
+            communication.send(new byte[communication.getMaxMessageSize() + 1]);
+        } finally {
+            communication.close();
+            Files.delete(file);
+        }
+    }
+}
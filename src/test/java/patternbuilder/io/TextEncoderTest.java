@@ -0,0 +1,58 @@
+package patternbuilder.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class TextEncoderTest {
+    private static final String[] SAMPLES = {
+            "",
+            "plain ascii {\"price\": 42}",
+            "latin-1 café üß",
+            "cyrillic привет, cjk 中文",
+            "emoji 😀 pair",
+            "lone \ud83d high and \ude00 low surrogates",
+            "trailing high \ud83d",
+    };
+
+    @Test
+    public void encodesLikeGetBytes() {
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.US_ASCII,
+                StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16LE, Charset.forName("windows-1251")}) {
+            TextEncoder encoder = new TextEncoder(charset, 16);
+            for (String sample : SAMPLES) {
+                assertArrayEquals(charset + ": " + sample, sample.getBytes(charset), toArray(encoder.encode(sample)));
+                assertArrayEquals(charset + ": " + sample, sample.getBytes(charset),
+                        toArray(encoder.encode(new StringBuilder(sample))));
+            }
+        }
+    }
+
+    @Test
+    public void encodesLongTextWithEncoderInChunks() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 5000) {
+            text.append("п😀x");
+        }
+        Charset charset = StandardCharsets.UTF_16BE;
+        assertArrayEquals(text.toString().getBytes(charset), toArray(new TextEncoder(charset, 16).encode(text)));
+    }
+
+    @Test
+    public void reusesBuffer() {
+        TextEncoder encoder = new TextEncoder(StandardCharsets.UTF_8, 64);
+        ByteBuffer first = encoder.encode("first");
+        assertSame(first, encoder.encode(new StringBuilder("second")));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
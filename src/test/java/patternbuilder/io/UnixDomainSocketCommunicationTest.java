@@ -0,0 +1,106 @@
+package patternbuilder.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class UnixDomainSocketCommunicationTest {
+    private Path path;
+    private ServerSocketChannel server;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(UnixDomainSockets.isSupported());
+        path = Files.createTempDirectory("uds").resolve("peer.sock");
+        server = UnixDomainSockets.openServerSocketChannel();
+        server.bind(UnixDomainSockets.address(path));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+            Files.deleteIfExists(path);
+            Files.delete(path.getParent());
+        }
+    }
+
+    @Test
+    public void sendsLengthPrefixedFrames() throws Exception {
+        UnixDomainSocketCommunication.Builder builder = new UnixDomainSocketCommunication.Builder();
+        builder.path(path).name("sidecar");
+        UnixDomainSocketCommunication communication = builder.build();
+        SocketChannel peer = server.accept();
+
+        communication.send(new byte[]{1, 2, 3});
+        communication.send(ByteBuffer.wrap(new byte[]{4}));
+        ByteBuffer received = ByteBuffer.allocate(12);
+        while (received.hasRemaining()) {
+            peer.read(received);
+        }
+        received.flip();
+        assertEquals(3, received.getInt());
+        assertEquals(1, received.get());
+        assertEquals(2, received.get());
+        assertEquals(3, received.get());
+        assertEquals(1, received.getInt());
+        assertEquals(4, received.get());
+        assertEquals(path, communication.getPath());
+        communication.close();
+        peer.close();
+    }
+
+    @Test
+    public void exchangesFramesWithServer() throws Exception {
+        Path serverPath = path.resolveSibling("server.sock");
+        CountDownLatch serverReceived = new CountDownLatch(1);
+        List<byte[]> clientReceived = new ArrayList<>();
+        try (EventLoopGroup group = new EventLoopGroup(1)) {
+            ServerCommunication.Builder serverBuilder = new ServerCommunication.Builder();
+            serverBuilder.path(serverPath)
+                    .eventLoopGroup(group)
+                    .consumer(bytes -> serverReceived.countDown());
+            ServerCommunication listener = serverBuilder.build();
+            UnixDomainSocketCommunication.Builder builder = new UnixDomainSocketCommunication.Builder();
+            builder.path(serverPath).consumer(clientReceived::add);
+            UnixDomainSocketCommunication client = builder.build();
+
+            client.send(new byte[]{1});
+            assertTrue(serverReceived.await(10, TimeUnit.SECONDS));
+            assertEquals(1, listener.getConnections().size());
+            listener.send(new byte[]{2});
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (clientReceived.isEmpty() && System.currentTimeMillis() < deadline) {
+                client.receive();
+            }
+            assertArrayEquals(new byte[]{2}, clientReceived.get(0));
+            client.close();
+            listener.close();
+            assertFalse(Files.exists(serverPath));
+        }
+    }
+
+    @Test
+    public void buildFailsWithoutListener() throws Exception {
+        UnixDomainSocketCommunication.Builder builder = new UnixDomainSocketCommunication.Builder();
+        builder.path(path.resolveSibling("missing.sock"));
+        assertNull(builder.build());
+    }
+}